@@ -1,14 +1,10 @@
 package monto.service.java8;
 
 import java.io.IOException;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Deque;
 import java.util.List;
 import monto.service.MontoService;
 import monto.service.ZMQConfiguration;
-import monto.service.ast.ASTNode;
-import monto.service.gson.GsonMonto;
 import monto.service.java8.antlr.Java8Lexer;
 import monto.service.java8.antlr.Java8Parser;
 import monto.service.product.Products;
@@ -18,20 +14,38 @@ import monto.service.request.Request;
 import monto.service.source.SourceMessage;
 import monto.service.types.Languages;
 import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.BailErrorStrategy;
 import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ConsoleErrorListener;
+import org.antlr.v4.runtime.DefaultErrorStrategy;
 import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.atn.PredictionMode;
 import org.antlr.v4.runtime.misc.Interval;
-import org.antlr.v4.runtime.tree.ErrorNode;
-import org.antlr.v4.runtime.tree.ParseTreeListener;
-import org.antlr.v4.runtime.tree.ParseTreeWalker;
-import org.antlr.v4.runtime.tree.TerminalNode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+import org.antlr.v4.runtime.tree.ParseTree;
 
 public class ANTLRJavaParser extends MontoService {
 
-  Java8Lexer lexer = new Java8Lexer(new ANTLRInputStream());
-  Java8Parser parser = new Java8Parser(new CommonTokenStream(lexer));
-
-  public ANTLRJavaParser(ZMQConfiguration zmqConfig) {
+  private final RequestWorkers workers;
+  private final DfaWarmup warmup;
+  private final boolean twoStageParsing;
+  private final boolean collapseChains;
+
+  /**
+   * With {@code twoStageParsing}, sources are first parsed with SLL prediction and without error
+   * recovery. Only if this fails, they are parsed again with full LL prediction and error recovery.
+   * SLL parsing is considerably faster, but the Java 8 grammar is not SLL everywhere, e.g. for
+   * comparisons like {@code i < list.size()}, so some correct sources are parsed twice.
+   *
+   * <p>With {@code collapseChains}, single child chains of rules are collapsed into one AST node,
+   * see {@link #convert(AstFactory, ParserRuleContext, boolean)}.
+   */
+  public ANTLRJavaParser(
+      ZMQConfiguration zmqConfig,
+      RequestWorkers workers,
+      DfaWarmup warmup,
+      boolean twoStageParsing,
+      boolean collapseChains) {
     super(
         zmqConfig,
         JavaServices.ANTLR_PARSER,
@@ -41,85 +55,101 @@ public class ANTLRJavaParser extends MontoService {
         options(),
         dependencies(new SourceDependency(Languages.JAVA)),
         commands());
+    this.workers = workers;
+    this.warmup = warmup;
+    this.twoStageParsing = twoStageParsing;
+    this.collapseChains = collapseChains;
+    JsonAst.checkLayout();
   }
 
   @Override
-  public void onRequest(Request request) throws IOException {
+  public void onRequest(Request request) throws Exception {
+    workers.execute(request.getSource(), () -> parse(request), e -> requestFailed(request, e));
+  }
+
+  /** Reports a request that failed on a worker, so the client doesn't wait for its AST. */
+  private void requestFailed(Request request, Exception e) {
+    request
+        .getSourceMessage()
+        .ifPresent(
+            version ->
+                sendProductMessageNotAvailable(
+                    version.getId(), version.getSource(), Products.AST, Languages.JAVA, e, 0));
+  }
+
+  private void parse(Request request) throws IOException {
     SourceMessage version =
         request
             .getSourceMessage()
             .orElseThrow(() -> new IllegalArgumentException("No version message in request"));
-    lexer.reset();
-    parser.reset();
-    lexer.setInputStream(new ANTLRInputStream(version.getContents()));
-    parser.setTokenStream(new CommonTokenStream(lexer));
-    ParserRuleContext root = parser.compilationUnit();
-    ParseTreeWalker walker = new ParseTreeWalker();
-
-    Converter converter = new Converter();
-    walker.walk(converter, root);
+    Java8Lexer lexer = Java8Recognizers.lexer(new ANTLRInputStream(version.getContents()));
+    Java8Parser parser = Java8Recognizers.parser(new CommonTokenStream(lexer));
+    ParserRuleContext root = compilationUnit(parser);
+    warmup.record(version.getSource(), version.getContents());
 
     sendProductMessage(
         version.getId(),
         version.getSource(),
         Products.AST,
         Languages.JAVA,
-        GsonMonto.toJsonTree(converter.getRoot()) // TODO Gson deserialization of this not tested
+        convert(JsonAst.factory(), root, collapseChains)
+        // TODO Gson deserialization of this not tested
         );
   }
 
-  private static class Converter implements ParseTreeListener {
-
-    private Deque<ASTNode> nodes = new ArrayDeque<>();
-
-    @Override
-    public void enterEveryRule(ParserRuleContext context) {
-      if (context.getChildCount() > 0) {
-        String name = Java8Parser.ruleNames[context.getRuleIndex()];
-        List<ASTNode> children = new ArrayList<>(context.getChildCount());
-        Interval interval = context.getSourceInterval();
-
-        ASTNode node = new ASTNode(name, interval.a, interval.length(), children);
-        addChild(node);
-        nodes.push(node);
+  private ParserRuleContext compilationUnit(Java8Parser parser) {
+    // The parser is reused, so prediction mode, error strategy and listeners are set on every parse
+    if (twoStageParsing) {
+      parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+      parser.setErrorHandler(new BailErrorStrategy());
+      parser.removeErrorListeners();
+      try {
+        return parser.compilationUnit();
+      } catch (ParseCancellationException e) {
+        // Either the source contains a syntax error or it needs full LL prediction.
+        // Rewind the already lexed tokens and parse again.
+        parser.reset();
       }
     }
+    parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+    parser.setErrorHandler(new DefaultErrorStrategy());
+    parser.removeErrorListeners();
+    parser.addErrorListener(ConsoleErrorListener.INSTANCE);
+    return parser.compilationUnit();
+  }
 
-    @Override
-    public void exitEveryRule(ParserRuleContext node) {
-      // Keep the last node to return
-      if (nodes.size() > 1) nodes.pop();
+  /**
+   * Converts the rule contexts of the parse tree to nodes of {@code factory}, terminals are left
+   * out. With {@code collapseChains}, a chain of rule contexts that each have a single rule context
+   * as child, like expression, conditionalExpression, ..., primary, is converted to a single node
+   * named after the innermost rule. All contexts of such a chain cover the same tokens.
+   */
+  static <T> T convert(AstFactory<T> factory, ParserRuleContext context, boolean collapseChains) {
+    if (collapseChains) {
+      while (context.getChildCount() == 1 && isConverted(context.getChild(0))) {
+        context = (ParserRuleContext) context.getChild(0);
+      }
     }
-    //
-    //        @Override
-    //        public void visitErrorNode(ErrorNode err) {
-    //            org.antlr.v4.runtime.Token symbol = err.getSymbol();
-    //            addChild(new NonTerminal("error", new Terminal(symbol.getStartIndex(), symbol.getStopIndex() - symbol.getStartIndex() + 1)));
-    //        }
-    //
-    //        @Override
-    //        public void visitTerminal(TerminalNode terminal) {
-    //            org.antlr.v4.runtime.Token symbol = terminal.getSymbol();
-    //            Terminal token = new Terminal(symbol.getStartIndex(), symbol.getStopIndex() - symbol.getStartIndex() + 1);
-    //            if (nodes.size() == 0)
-    //                nodes.push(token);
-    //            else
-    //                addChild(token);
-    //        }
-
-    private void addChild(ASTNode node) {
-      if (nodes.isEmpty()) nodes.add(node);
-      else nodes.peek().addChild(node);
+    int childCount = 0;
+    for (int i = 0; i < context.getChildCount(); i++) {
+      if (isConverted(context.getChild(i))) {
+        childCount++;
+      }
     }
-
-    public ASTNode getRoot() {
-      return nodes.peek();
+    List<T> children = new ArrayList<>(childCount);
+    for (int i = 0; i < context.getChildCount(); i++) {
+      ParseTree child = context.getChild(i);
+      if (isConverted(child)) {
+        children.add(convert(factory, (ParserRuleContext) child, collapseChains));
+      }
     }
+    // ruleNames holds string literals, so all nodes of a rule share the same interned name
+    Interval interval = context.getSourceInterval();
+    return factory.node(
+        Java8Parser.ruleNames[context.getRuleIndex()], interval.a, interval.length(), children);
+  }
 
-    @Override
-    public void visitErrorNode(ErrorNode arg0) {}
-
-    @Override
-    public void visitTerminal(TerminalNode arg0) {}
+  private static boolean isConverted(ParseTree tree) {
+    return tree instanceof ParserRuleContext && tree.getChildCount() > 0;
   }
 }
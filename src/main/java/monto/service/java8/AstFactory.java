@@ -0,0 +1,13 @@
+package monto.service.java8;
+
+import java.util.List;
+import monto.service.ast.ASTNode;
+
+/**
+ * Creates the nodes of an AST product. The parsers build either the JSON of {@link ASTNode}s
+ * directly with {@link JsonAst}, or a {@link FlatAst}.
+ */
+@FunctionalInterface
+public interface AstFactory<T> {
+  T node(String name, int offset, int length, List<T> children);
+}
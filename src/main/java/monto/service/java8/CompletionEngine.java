@@ -0,0 +1,202 @@
+package monto.service.java8;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import monto.service.identifier.Identifier;
+
+/**
+ * Ranks the identifiers of an {@link IdentifierIndex} as completions of the text before the cursor
+ * and keeps only the best ones. The score of a candidate adds up
+ *
+ * <ul>
+ *   <li>how well it matches the typed text: exact prefixes before prefixes ignoring case, camel
+ *       case humps and finally fuzzy matches, where the typed characters appear in order,
+ *   <li>its kind: local variables before fields, methods, types and imports,
+ *   <li>how close to the cursor it occurs in the source.
+ * </ul>
+ *
+ * Fuzzy candidates have to start with the first typed character, so only the identifiers starting
+ * with it are scored.
+ */
+public class CompletionEngine {
+  private static final int EXACT_PREFIX = 100;
+  private static final int PREFIX_IGNORING_CASE = 80;
+  private static final int HUMPS = 70;
+  private static final int FUZZY = 40;
+  private static final int MAX_PROXIMITY = 30;
+  // Characters from the cursor at which the proximity score halves
+  private static final int PROXIMITY_HALF_DISTANCE = 500;
+
+  private final int maxCompletions;
+
+  public CompletionEngine(int maxCompletions) {
+    this.maxCompletions = maxCompletions;
+  }
+
+  /** Returns the best completions of {@code typed}, ordered from best to worst. */
+  public List<Identifier> complete(
+      IdentifierIndex index, String typed, String contents, int cursor) {
+    Map<Identifier, Integer> scores = new HashMap<>();
+    if (typed.isEmpty()) {
+      for (Identifier identifier : index.withPrefix(typed)) {
+        scores.put(identifier, 0);
+      }
+    } else {
+      String first = typed.substring(0, 1);
+      for (Identifier identifier : index.withPrefix(first.toLowerCase())) {
+        score(scores, identifier, fuzzy(typed, identifier.getIdentifier()));
+      }
+      for (Identifier identifier : index.withPrefix(first.toUpperCase())) {
+        score(scores, identifier, fuzzy(typed, identifier.getIdentifier()));
+      }
+      for (Identifier identifier : index.withHumps(typed)) {
+        score(scores, identifier, HUMPS);
+      }
+    }
+
+    Map<String, Integer> distances = distances(scores, contents, cursor);
+    PriorityQueue<Ranked> best = new PriorityQueue<>(maxCompletions + 1);
+    for (Map.Entry<Identifier, Integer> candidate : scores.entrySet()) {
+      Identifier identifier = candidate.getKey();
+      Integer distance = distances.get(identifier.getIdentifier());
+      int score =
+          candidate.getValue()
+              + kind(identifier.getType())
+              + (distance == null
+                  ? 0
+                  : MAX_PROXIMITY * PROXIMITY_HALF_DISTANCE / (PROXIMITY_HALF_DISTANCE + distance));
+      best.add(new Ranked(identifier, score));
+      if (best.size() > maxCompletions) {
+        best.poll();
+      }
+    }
+
+    List<Identifier> completions = new ArrayList<>(best.size());
+    while (!best.isEmpty()) {
+      completions.add(best.poll().identifier);
+    }
+    Collections.reverse(completions);
+    return completions;
+  }
+
+  private static void score(Map<Identifier, Integer> scores, Identifier identifier, int score) {
+    if (score >= 0) {
+      scores.merge(identifier, score, Math::max);
+    }
+  }
+
+  /**
+   * Scores how well {@code typed} matches {@code name}, or returns -1 if the characters of {@code
+   * typed} don't appear in {@code name} in order, ignoring case.
+   */
+  static int fuzzy(String typed, String name) {
+    if (name.startsWith(typed)) {
+      return EXACT_PREFIX;
+    }
+    if (name.regionMatches(true, 0, typed, 0, typed.length())) {
+      return PREFIX_IGNORING_CASE;
+    }
+    int gaps = 0;
+    int position = 0;
+    for (int i = 0; i < typed.length(); i++) {
+      char c = Character.toLowerCase(typed.charAt(i));
+      int start = position;
+      while (position < name.length() && Character.toLowerCase(name.charAt(position)) != c) {
+        position++;
+      }
+      if (position == name.length()) {
+        return -1;
+      }
+      if (position > start) {
+        gaps++;
+      }
+      position++;
+    }
+    // Every gap between matched characters costs, matches in fewer runs are better
+    return Math.max(1, FUZZY - 5 * gaps);
+  }
+
+  private static int kind(String type) {
+    switch (type) {
+      case "variable":
+        return 50;
+      case "field":
+        return 40;
+      case "method":
+        return 30;
+      case "class":
+      case "interface":
+      case "enum":
+        return 20;
+      case "import":
+        return 10;
+      default:
+        return 0;
+    }
+  }
+
+  /**
+   * Returns the distance in characters from the cursor to the closest occurrence of each candidate
+   * in the source. The source is scanned once for identifiers, without the AST, so occurrences in
+   * comments and strings count as well.
+   */
+  private static Map<String, Integer> distances(
+      Map<Identifier, Integer> candidates, String contents, int cursor) {
+    Map<String, Integer> distances = new HashMap<>();
+    for (Identifier candidate : candidates.keySet()) {
+      distances.put(candidate.getIdentifier(), null);
+    }
+    int i = 0;
+    while (i < contents.length()) {
+      if (!Character.isJavaIdentifierStart(contents.charAt(i))) {
+        i++;
+        continue;
+      }
+      int start = i;
+      while (i < contents.length() && Character.isJavaIdentifierPart(contents.charAt(i))) {
+        i++;
+      }
+      // The identifier being typed doesn't count
+      if (start <= cursor && cursor <= i) {
+        continue;
+      }
+      String word = contents.substring(start, i);
+      if (distances.containsKey(word)) {
+        int distance = start > cursor ? start - cursor : cursor - i;
+        Integer closest = distances.get(word);
+        if (closest == null || distance < closest) {
+          distances.put(word, distance);
+        }
+      }
+    }
+    return distances;
+  }
+
+  private static class Ranked implements Comparable<Ranked> {
+    private final Identifier identifier;
+    private final int score;
+
+    Ranked(Identifier identifier, int score) {
+      this.identifier = identifier;
+      this.score = score;
+    }
+
+    @Override
+    public int compareTo(Ranked other) {
+      // Shorter and then alphabetically smaller identifiers rank higher among equal scores
+      if (score != other.score) {
+        return Integer.compare(score, other.score);
+      }
+      String name = identifier.getIdentifier();
+      String otherName = other.identifier.getIdentifier();
+      if (name.length() != otherName.length()) {
+        return Integer.compare(otherName.length(), name.length());
+      }
+      return otherName.compareTo(name);
+    }
+  }
+}
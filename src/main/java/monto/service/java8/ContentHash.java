@@ -0,0 +1,52 @@
+package monto.service.java8;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * SHA-256 hash of source contents, used as a cache key. Collisions are practically impossible, so
+ * equal hashes are treated as equal contents.
+ */
+public final class ContentHash {
+  private static final int CHUNK_CHARS = 4096;
+
+  private final byte[] digest;
+  private final int hashCode;
+
+  private ContentHash(byte[] digest) {
+    this.digest = digest;
+    this.hashCode = Arrays.hashCode(digest);
+  }
+
+  public static ContentHash of(String contents) {
+    MessageDigest sha256;
+    try {
+      sha256 = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is required by every Java platform", e);
+    }
+    // Hashing the UTF-16 code units in chunks avoids encoding a copy of the whole contents
+    byte[] chunk = new byte[2 * Math.min(CHUNK_CHARS, contents.length())];
+    for (int begin = 0; begin < contents.length(); begin += CHUNK_CHARS) {
+      int end = Math.min(begin + CHUNK_CHARS, contents.length());
+      for (int i = begin; i < end; i++) {
+        char c = contents.charAt(i);
+        chunk[2 * (i - begin)] = (byte) (c >> 8);
+        chunk[2 * (i - begin) + 1] = (byte) c;
+      }
+      sha256.update(chunk, 0, 2 * (end - begin));
+    }
+    return new ContentHash(sha256.digest());
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    return other instanceof ContentHash && Arrays.equals(digest, ((ContentHash) other).digest);
+  }
+
+  @Override
+  public int hashCode() {
+    return hashCode;
+  }
+}
@@ -0,0 +1,146 @@
+package monto.service.java8;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import monto.service.java8.antlr.Java8Lexer;
+import monto.service.java8.antlr.Java8Parser;
+import monto.service.types.Source;
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ConsoleErrorListener;
+import org.antlr.v4.runtime.DefaultErrorStrategy;
+import org.antlr.v4.runtime.atn.PredictionMode;
+
+/**
+ * Warms up the DFA caches of {@link Java8Lexer} and {@link Java8Parser}. Both caches are static, so
+ * they are shared by all lexer and parser instances, but they start empty after every restart.
+ *
+ * <p>The learned DFA states reference ATN configurations and prediction contexts that ANTLR offers
+ * no way to serialize. Instead, the most recently parsed sources can be saved to a snapshot file
+ * and parsed again on startup, which teaches the caches the same states as before.
+ */
+public class DfaWarmup {
+  private static final String[] CORPUS = {
+    "/warmup/Declarations.java", "/warmup/Statements.java", "/warmup/Expressions.java"
+  };
+  private static final int MAX_SNAPSHOT_SOURCES = 64;
+  private static final long MAX_SNAPSHOT_CHARS = 4 * 1024 * 1024;
+
+  private final Path snapshot;
+  private final LinkedHashMap<Source, String> recentSources = new LinkedHashMap<>(16, 0.75f, true);
+  private long recentChars = 0;
+
+  /** @param snapshot file to save recently parsed sources to, or null to not record sources. */
+  public DfaWarmup(Path snapshot) {
+    this.snapshot = snapshot;
+  }
+
+  /** Parses the bundled corpus and the sources of the snapshot file, if it exists. */
+  public void warmUp() throws IOException {
+    long start = System.nanoTime();
+    List<String> sources = new ArrayList<>();
+    for (String resource : CORPUS) {
+      sources.add(readResource(resource));
+    }
+    if (snapshot != null && Files.exists(snapshot)) {
+      sources.addAll(load(snapshot));
+    }
+    for (String source : sources) {
+      parse(source);
+    }
+    System.out.printf(
+        "Warmed up ANTLR DFA cache with %d sources in %d ms\n",
+        sources.size(), (System.nanoTime() - start) / 1000000);
+  }
+
+  /** Remembers the latest version of {@code source} for the snapshot. */
+  public synchronized void record(Source source, String contents) {
+    if (snapshot == null) {
+      return;
+    }
+    String previous = recentSources.put(source, contents);
+    recentChars += contents.length() - (previous == null ? 0 : previous.length());
+    Iterator<String> eldest = recentSources.values().iterator();
+    while (recentSources.size() > MAX_SNAPSHOT_SOURCES
+        || (recentChars > MAX_SNAPSHOT_CHARS && recentSources.size() > 1)) {
+      recentChars -= eldest.next().length();
+      eldest.remove();
+    }
+  }
+
+  /** Writes the recorded sources to the snapshot file. */
+  public void save() throws IOException {
+    if (snapshot == null) {
+      return;
+    }
+    List<String> sources;
+    synchronized (this) {
+      sources = new ArrayList<>(recentSources.values());
+    }
+    try (DataOutputStream out =
+        new DataOutputStream(new GZIPOutputStream(Files.newOutputStream(snapshot)))) {
+      out.writeInt(sources.size());
+      for (String source : sources) {
+        byte[] bytes = source.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      }
+    }
+  }
+
+  private static List<String> load(Path snapshot) throws IOException {
+    List<String> sources = new ArrayList<>();
+    try (DataInputStream in =
+        new DataInputStream(new GZIPInputStream(Files.newInputStream(snapshot)))) {
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        sources.add(new String(bytes, StandardCharsets.UTF_8));
+      }
+    }
+    return sources;
+  }
+
+  private static void parse(String source) {
+    // Snapshot sources may contain syntax errors, which are of no interest here
+    Java8Lexer lexer = Java8Recognizers.lexer(new ANTLRInputStream(source));
+    lexer.removeErrorListeners();
+    try {
+      Java8Parser parser = Java8Recognizers.parser(new CommonTokenStream(lexer));
+      parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+      parser.setErrorHandler(new DefaultErrorStrategy());
+      parser.removeErrorListeners();
+      parser.compilationUnit();
+    } finally {
+      lexer.addErrorListener(ConsoleErrorListener.INSTANCE);
+    }
+  }
+
+  private static String readResource(String name) throws IOException {
+    try (InputStream in = DfaWarmup.class.getResourceAsStream(name)) {
+      if (in == null) {
+        throw new IOException("Missing warm-up resource " + name);
+      }
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        bytes.write(buffer, 0, read);
+      }
+      return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+  }
+}
@@ -0,0 +1,274 @@
+package monto.service.java8;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import monto.service.gson.GsonMonto;
+import monto.service.product.ProductMessage;
+import monto.service.region.Region;
+
+/**
+ * An AST stored in parallel int arrays instead of nested objects. Every node has a kind, which
+ * indexes the table of node names, an offset, a length, its first child and its next sibling. Nodes
+ * are referenced by their index, -1 stands for no node.
+ *
+ * <p>As AST product, the table of names is a JSON array and the arrays are base64 encoded:
+ *
+ * <pre>
+ * {"format": "flat", "names": [...], "size": n, "root": r, "nodes": "base64..."}
+ * </pre>
+ *
+ * where the nodes are the kinds, offsets, lengths, first children and next siblings of all nodes,
+ * one array after another, as big-endian 32-bit integers.
+ */
+public class FlatAst {
+  public static final String FORMAT = "flat";
+
+  private final String[] names;
+  private final int size;
+  private final int root;
+  private final int[] kinds;
+  private final int[] offsets;
+  private final int[] lengths;
+  private final int[] firstChildren;
+  private final int[] nextSiblings;
+
+  private FlatAst(
+      String[] names,
+      int size,
+      int root,
+      int[] kinds,
+      int[] offsets,
+      int[] lengths,
+      int[] firstChildren,
+      int[] nextSiblings) {
+    this.names = names;
+    this.size = size;
+    this.root = root;
+    this.kinds = kinds;
+    this.offsets = offsets;
+    this.lengths = lengths;
+    this.firstChildren = firstChildren;
+    this.nextSiblings = nextSiblings;
+  }
+
+  /**
+   * Reads the AST of a product message. If {@code bus} isn't null and shares the AST of the
+   * message, that one is returned, otherwise the AST is decoded from the flat or the nested JSON
+   * format.
+   */
+  public static FlatAst fromMessage(ProductMessage message, ProductBus bus) {
+    if (bus != null) {
+      FlatAst shared = bus.get(message.getSource(), message.getId(), FlatAst.class);
+      if (shared != null) {
+        return shared;
+      }
+    }
+    return fromJson(GsonMonto.fromJson(message, JsonElement.class));
+  }
+
+  /** Reads an AST product in either the flat or the nested JSON format. */
+  public static FlatAst fromJson(JsonElement json) {
+    if (!json.isJsonObject()
+        || !json.getAsJsonObject().has("format")
+        || !FORMAT.equals(json.getAsJsonObject().get("format").getAsString())) {
+      return ofNested(json.getAsJsonObject());
+    }
+    JsonObject object = json.getAsJsonObject();
+    JsonArray nameArray = object.getAsJsonArray("names");
+    String[] names = new String[nameArray.size()];
+    for (int i = 0; i < names.length; i++) {
+      names[i] = nameArray.get(i).getAsString();
+    }
+    int size = object.get("size").getAsInt();
+    ByteBuffer nodes =
+        ByteBuffer.wrap(Base64.getDecoder().decode(object.get("nodes").getAsString()));
+    int[][] arrays = new int[5][size];
+    for (int[] array : arrays) {
+      nodes.asIntBuffer().get(array);
+      nodes.position(nodes.position() + 4 * size);
+    }
+    return new FlatAst(
+        names,
+        size,
+        object.get("root").getAsInt(),
+        arrays[0],
+        arrays[1],
+        arrays[2],
+        arrays[3],
+        arrays[4]);
+  }
+
+  /**
+   * Flattens an AST of the nested format, the JSON of ASTNodes, while walking the JSON. The nodes
+   * are read by the property names of {@link JsonAst}, no ASTNodes are created in between.
+   */
+  private static FlatAst ofNested(JsonObject root) {
+    Builder builder = new Builder();
+    // Nodes are added after their children, so the tree is traversed in post-order
+    Deque<JsonObject> stack = new ArrayDeque<>();
+    Deque<Integer> childIndices = new ArrayDeque<>();
+    Deque<Integer> pending = new ArrayDeque<>();
+    stack.push(root);
+    childIndices.push(0);
+    while (!stack.isEmpty()) {
+      JsonObject node = stack.peek();
+      JsonArray children = node.getAsJsonArray(JsonAst.CHILDREN);
+      int childCount = children == null ? 0 : children.size();
+      int next = childIndices.pop();
+      if (next < childCount) {
+        childIndices.push(next + 1);
+        stack.push(children.get(next).getAsJsonObject());
+        childIndices.push(0);
+        continue;
+      }
+      stack.pop();
+      Integer[] built = new Integer[childCount];
+      for (int i = childCount - 1; i >= 0; i--) {
+        built[i] = pending.pop();
+      }
+      pending.push(
+          builder.node(
+              node.get(JsonAst.NAME).getAsString(),
+              node.get(JsonAst.START_OFFSET).getAsInt(),
+              node.get(JsonAst.LENGTH).getAsInt(),
+              Arrays.asList(built)));
+    }
+    return builder.build(pending.pop());
+  }
+
+  public JsonElement toJson() {
+    JsonObject json = new JsonObject();
+    json.addProperty("format", FORMAT);
+    JsonArray nameArray = new JsonArray();
+    for (String name : names) {
+      nameArray.add(new JsonPrimitive(name));
+    }
+    json.add("names", nameArray);
+    json.addProperty("size", size);
+    json.addProperty("root", root);
+    ByteBuffer nodes = ByteBuffer.allocate(5 * 4 * size);
+    for (int[] array : new int[][] {kinds, offsets, lengths, firstChildren, nextSiblings}) {
+      nodes.asIntBuffer().put(array, 0, size);
+      nodes.position(nodes.position() + 4 * size);
+    }
+    json.addProperty("nodes", Base64.getEncoder().encodeToString(nodes.array()));
+    return json;
+  }
+
+  public int getRoot() {
+    return root;
+  }
+
+  public String getName(int node) {
+    return names[kinds[node]];
+  }
+
+  public int getOffset(int node) {
+    return offsets[node];
+  }
+
+  public int getLength(int node) {
+    return lengths[node];
+  }
+
+  public int getEndOffset(int node) {
+    return offsets[node] + lengths[node];
+  }
+
+  public int getFirstChild(int node) {
+    return firstChildren[node];
+  }
+
+  public int getNextSibling(int node) {
+    return nextSiblings[node];
+  }
+
+  /** Returns the {@code index}th child of {@code node}, or -1 if it has less children. */
+  public int getChild(int node, int index) {
+    int child = firstChildren[node];
+    for (int i = 0; i < index && child != -1; i++) {
+      child = nextSiblings[child];
+    }
+    return child;
+  }
+
+  public int getChildCount(int node) {
+    int count = 0;
+    for (int child = firstChildren[node]; child != -1; child = nextSiblings[child]) {
+      count++;
+    }
+    return count;
+  }
+
+  public Region region(int node) {
+    return new Region(offsets[node], lengths[node]);
+  }
+
+  public String extract(int node, String document) {
+    return document.substring(offsets[node], offsets[node] + lengths[node]);
+  }
+
+  /**
+   * Builds a flat AST bottom-up, as the parsers convert their trees. A node is referenced by its
+   * index.
+   */
+  public static class Builder implements AstFactory<Integer> {
+    private final List<String> names = new ArrayList<>();
+    private final Map<String, Integer> kindsByName = new HashMap<>();
+    private int size = 0;
+    private int[] kinds = new int[256];
+    private int[] offsets = new int[256];
+    private int[] lengths = new int[256];
+    private int[] firstChildren = new int[256];
+    private int[] nextSiblings = new int[256];
+
+    @Override
+    public Integer node(String name, int offset, int length, List<Integer> children) {
+      if (size == kinds.length) {
+        kinds = Arrays.copyOf(kinds, 2 * size);
+        offsets = Arrays.copyOf(offsets, 2 * size);
+        lengths = Arrays.copyOf(lengths, 2 * size);
+        firstChildren = Arrays.copyOf(firstChildren, 2 * size);
+        nextSiblings = Arrays.copyOf(nextSiblings, 2 * size);
+      }
+      Integer kind = kindsByName.get(name);
+      if (kind == null) {
+        kind = names.size();
+        names.add(name);
+        kindsByName.put(name, kind);
+      }
+      kinds[size] = kind;
+      offsets[size] = offset;
+      lengths[size] = length;
+      firstChildren[size] = children.isEmpty() ? -1 : children.get(0);
+      nextSiblings[size] = -1;
+      for (int i = 0; i + 1 < children.size(); i++) {
+        nextSiblings[children.get(i)] = children.get(i + 1);
+      }
+      return size++;
+    }
+
+    public FlatAst build(int root) {
+      return new FlatAst(
+          names.toArray(new String[names.size()]),
+          size,
+          root,
+          kinds,
+          offsets,
+          lengths,
+          firstChildren,
+          nextSiblings);
+    }
+  }
+}
@@ -0,0 +1,131 @@
+package monto.service.java8;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import monto.service.identifier.Identifier;
+
+/**
+ * Identifiers sorted for fast completion queries. The identifiers are kept in a sorted array, so
+ * the identifiers starting with a prefix are found by binary search in O(log n + k) for k results.
+ *
+ * <p>For camel case queries, the humps of every identifier, its first character, upper case
+ * characters that don't continue an acronym and characters after underscores, are kept in a second
+ * sorted array. A query like {@code NPE} or {@code npe} finds {@code NullPointerException} by
+ * searching its humps {@code npe} for the lower case query as prefix.
+ *
+ * <p>Names are interned, so the indexes of the identifiers of many sources share their strings.
+ */
+public class IdentifierIndex {
+  private final Identifier[] identifiers;
+  private final String[] names;
+  private final String[] humps;
+  // Index of the identifier the humps at the same position belong to
+  private final int[] humpIdentifiers;
+
+  public IdentifierIndex(Collection<Identifier> unsorted) {
+    identifiers = new Identifier[unsorted.size()];
+    int next = 0;
+    for (Identifier identifier : unsorted) {
+      identifiers[next++] =
+          new Identifier(identifier.getIdentifier().intern(), identifier.getType().intern());
+    }
+    Arrays.sort(identifiers, Comparator.comparing(Identifier::getIdentifier));
+    names = new String[identifiers.length];
+    for (int i = 0; i < identifiers.length; i++) {
+      names[i] = identifiers[i].getIdentifier();
+    }
+
+    Integer[] byHumps = new Integer[identifiers.length];
+    String[] unsortedHumps = new String[identifiers.length];
+    for (int i = 0; i < identifiers.length; i++) {
+      byHumps[i] = i;
+      unsortedHumps[i] = humps(names[i]);
+    }
+    Arrays.sort(byHumps, Comparator.comparing(i -> unsortedHumps[i]));
+    humps = new String[identifiers.length];
+    humpIdentifiers = new int[identifiers.length];
+    for (int i = 0; i < identifiers.length; i++) {
+      humps[i] = unsortedHumps[byHumps[i]];
+      humpIdentifiers[i] = byHumps[i];
+    }
+  }
+
+  public int size() {
+    return identifiers.length;
+  }
+
+  /**
+   * Estimates the bytes retained by this index on a 64-bit JVM. The interned names are shared and
+   * not counted.
+   */
+  public long retainedSize() {
+    long size = 4 * 16 + identifiers.length * (24L + 3 * 8 + 4);
+    for (String hump : humps) {
+      size += 40 + 2 * hump.length();
+    }
+    return size;
+  }
+
+  /** Returns the identifiers starting with {@code prefix}, in alphabetical order. */
+  public List<Identifier> withPrefix(String prefix) {
+    List<Identifier> result = new ArrayList<>();
+    for (int i = lowerBound(names, prefix); i < names.length && names[i].startsWith(prefix); i++) {
+      result.add(identifiers[i]);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the identifiers whose humps start with the characters of {@code query}, ignoring case.
+   */
+  public List<Identifier> withHumps(String query) {
+    String lowerCase = query.toLowerCase();
+    List<Identifier> result = new ArrayList<>();
+    for (int i = lowerBound(humps, lowerCase);
+        i < humps.length && humps[i].startsWith(lowerCase);
+        i++) {
+      result.add(identifiers[humpIdentifiers[i]]);
+    }
+    return result;
+  }
+
+  /** Returns the lower case first character and the characters starting a new hump. */
+  static String humps(String identifier) {
+    StringBuilder humps = new StringBuilder();
+    for (int i = 0; i < identifier.length(); i++) {
+      char c = identifier.charAt(i);
+      if (c == '_') {
+        continue;
+      }
+      char previous = i == 0 ? '_' : identifier.charAt(i - 1);
+      // In acronyms like HTMLParser, only H and P start humps
+      boolean acronym =
+          Character.isUpperCase(previous)
+              && (i + 1 == identifier.length() || !Character.isLowerCase(identifier.charAt(i + 1)));
+      if (previous == '_'
+          || (Character.isUpperCase(c) && !acronym)
+          || (Character.isDigit(c) && !Character.isDigit(previous))) {
+        humps.append(Character.toLowerCase(c));
+      }
+    }
+    return humps.toString();
+  }
+
+  /** Returns the index of the first element of {@code sorted} not less than {@code key}. */
+  private static int lowerBound(String[] sorted, String key) {
+    int low = 0;
+    int high = sorted.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (sorted[middle].compareTo(key) < 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+}
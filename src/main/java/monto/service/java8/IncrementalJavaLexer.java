@@ -0,0 +1,288 @@
+package monto.service.java8;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import monto.service.java8.antlr.Java8Lexer;
+import monto.service.types.Source;
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.Token;
+
+/**
+ * Lexes Java sources incrementally by keeping the tokens of the last version of recent sources.
+ *
+ * <p>Besides type and offsets, the furthest character the lexer looked at while producing a token
+ * is recorded. On a new version, all tokens whose lookahead stayed in front of the edit are reused,
+ * so lexing restarts right behind the last such token. This is always a safe restart point, even
+ * for unterminated comments and strings, because their lookahead reaches into the edit. Lexing
+ * stops as soon as a token behind the edit matches a cached one, the remaining cached tokens are
+ * shifted by the length difference of the edit.
+ *
+ * <p>Different sources can be lexed concurrently, but versions of the same source have to be lexed
+ * one after another, as {@link RequestWorkers} does.
+ *
+ * <p>The tokens of the most recently lexed sources are kept up to a total size, a source whose
+ * tokens were evicted is lexed from scratch again.
+ */
+public class IncrementalJavaLexer {
+
+  // Bytes of the tokens kept for the recently lexed sources
+  private static final long MAX_CACHED_BYTES = 32 * 1024 * 1024;
+
+  private final SizeBoundedCache<Source, LexedSource> cache =
+      new SizeBoundedCache<>(MAX_CACHED_BYTES, LexedSource::retainedSize);
+  private final AtomicLong sequence = new AtomicLong();
+
+  public LexedSource lex(Source source, String contents) {
+    LexedSource previous = cache.get(source);
+    LexedSource lexed;
+    if (previous == null) {
+      lexed = relex(null, contents, 0, 0);
+    } else if (previous.contents.equals(contents)) {
+      return previous;
+    } else {
+      String oldContents = previous.contents;
+      int maxCommon = Math.min(oldContents.length(), contents.length());
+      int prefix = 0;
+      while (prefix < maxCommon && oldContents.charAt(prefix) == contents.charAt(prefix)) {
+        prefix++;
+      }
+      int suffix = 0;
+      while (suffix < maxCommon - prefix
+          && oldContents.charAt(oldContents.length() - 1 - suffix)
+              == contents.charAt(contents.length() - 1 - suffix)) {
+        suffix++;
+      }
+      lexed = relex(previous, contents, prefix, contents.length() - suffix);
+    }
+    cache.put(source, lexed);
+    return lexed;
+  }
+
+  public void remove(Source source) {
+    cache.remove(source);
+  }
+
+  /**
+   * Lexes {@code contents}, reusing the tokens of {@code previous} in front of {@code editStart}
+   * and behind {@code editEnd}. The text outside of this range is identical in both versions.
+   */
+  private LexedSource relex(LexedSource previous, String contents, int editStart, int editEnd) {
+    int reused = 0;
+    if (previous != null) {
+      while (reused < previous.size && previous.lookaheads[reused] < editStart) {
+        reused++;
+      }
+    }
+    int restart = reused == 0 ? 0 : previous.stops[reused - 1] + 1;
+
+    LexedSource lexed =
+        new LexedSource(
+            contents,
+            sequence.getAndIncrement(),
+            previous == null ? -1 : previous.sequence,
+            previous == null ? 1024 : previous.size + 16);
+    if (reused > 0) {
+      lexed.copy(previous, 0, reused, 0);
+    }
+
+    TrackingInputStream input = new TrackingInputStream(contents);
+    Java8Lexer lexer = Java8Recognizers.lexer(input);
+    input.seek(restart);
+
+    int delta = previous == null ? 0 : contents.length() - previous.contents.length();
+    int candidate = reused;
+    int oldEnd = previous == null ? 0 : previous.size;
+    int newEnd = -1;
+    while (true) {
+      input.maxIndex = -1;
+      Token token = lexer.nextToken();
+      if (token.getType() == Token.EOF) {
+        break;
+      }
+      int start = token.getStartIndex();
+      int stop = token.getStopIndex();
+      lexed.add(token.getType(), start, stop, input.maxIndex);
+
+      if (previous != null && start >= editEnd) {
+        // Tokens behind the edit are compared with the cached tokens at the same shifted offset.
+        // Once a token matches, the lexer continues from identical text in both versions and
+        // would reproduce the cached tokens anyway.
+        while (candidate < previous.size && previous.starts[candidate] + delta < start) {
+          candidate++;
+        }
+        if (candidate < previous.size
+            && previous.starts[candidate] + delta == start
+            && previous.stops[candidate] + delta == stop
+            && previous.types[candidate] == token.getType()) {
+          oldEnd = candidate + 1;
+          newEnd = lexed.size;
+          lexed.copy(previous, candidate + 1, previous.size - candidate - 1, delta);
+          break;
+        }
+      }
+    }
+    if (newEnd == -1) {
+      newEnd = lexed.size;
+    }
+
+    // The relexed range usually starts and ends with tokens that didn't change, these are not
+    // reported as part of the change.
+    int changeStart = reused;
+    if (previous != null) {
+      while (changeStart < oldEnd
+          && changeStart < newEnd
+          && lexed.sameToken(changeStart, previous, changeStart, 0)) {
+        changeStart++;
+      }
+      while (oldEnd > changeStart
+          && newEnd > changeStart
+          && lexed.sameToken(newEnd - 1, previous, oldEnd - 1, delta)) {
+        oldEnd--;
+        newEnd--;
+      }
+    }
+    lexed.changeStart = changeStart;
+    lexed.changeRemoved = oldEnd - changeStart;
+    lexed.changeInserted = newEnd - changeStart;
+    lexed.shift = delta;
+    return lexed;
+  }
+
+  /**
+   * Tokens of one version of a source, stored in parallel arrays, together with the range of tokens
+   * that changed compared to the version it was lexed from.
+   */
+  public static class LexedSource {
+    private final String contents;
+    private final long sequence;
+    private final long baseSequence;
+    private int changeStart;
+    private int changeRemoved;
+    private int changeInserted;
+    private int shift;
+    private int size;
+    private int[] types;
+    private int[] starts;
+    private int[] stops;
+    private int[] lookaheads;
+
+    private LexedSource(String contents, long sequence, long baseSequence, int capacity) {
+      this.contents = contents;
+      this.sequence = sequence;
+      this.baseSequence = baseSequence;
+      types = new int[capacity];
+      starts = new int[capacity];
+      stops = new int[capacity];
+      lookaheads = new int[capacity];
+    }
+
+    public int size() {
+      return size;
+    }
+
+    /** Estimates the bytes retained by the tokens and contents on a 64-bit JVM. */
+    private long retainedSize() {
+      return 64 + 4 * (16 + 4L * types.length) + 40 + 2L * contents.length();
+    }
+
+    /** Identifies this version of the tokens. */
+    public long getSequence() {
+      return sequence;
+    }
+
+    /** Sequence of the tokens this version was derived from, or -1 if it was lexed from scratch. */
+    public long getBaseSequence() {
+      return baseSequence;
+    }
+
+    /** Index of the first token that differs from the base version. */
+    public int getChangeStart() {
+      return changeStart;
+    }
+
+    /** Number of tokens of the base version that were replaced. */
+    public int getChangeRemoved() {
+      return changeRemoved;
+    }
+
+    /** Number of tokens that replaced the removed tokens, starting at {@link #getChangeStart()}. */
+    public int getChangeInserted() {
+      return changeInserted;
+    }
+
+    /** Offset difference of all tokens behind the change compared to the base version. */
+    public int getShift() {
+      return shift;
+    }
+
+    public int getType(int index) {
+      return types[index];
+    }
+
+    public int getStartIndex(int index) {
+      return starts[index];
+    }
+
+    public int getStopIndex(int index) {
+      return stops[index];
+    }
+
+    private boolean sameToken(int index, LexedSource other, int otherIndex, int delta) {
+      return types[index] == other.types[otherIndex]
+          && starts[index] == other.starts[otherIndex] + delta
+          && stops[index] == other.stops[otherIndex] + delta;
+    }
+
+    private void add(int type, int start, int stop, int lookahead) {
+      ensureCapacity(size + 1);
+      types[size] = type;
+      starts[size] = start;
+      stops[size] = stop;
+      lookaheads[size] = lookahead;
+      size++;
+    }
+
+    private void copy(LexedSource from, int offset, int length, int delta) {
+      ensureCapacity(size + length);
+      System.arraycopy(from.types, offset, types, size, length);
+      System.arraycopy(from.starts, offset, starts, size, length);
+      System.arraycopy(from.stops, offset, stops, size, length);
+      System.arraycopy(from.lookaheads, offset, lookaheads, size, length);
+      if (delta != 0) {
+        for (int i = size; i < size + length; i++) {
+          starts[i] += delta;
+          stops[i] += delta;
+          lookaheads[i] += delta;
+        }
+      }
+      size += length;
+    }
+
+    private void ensureCapacity(int capacity) {
+      if (capacity > types.length) {
+        int newCapacity = Math.max(capacity, types.length * 2);
+        types = Arrays.copyOf(types, newCapacity);
+        starts = Arrays.copyOf(starts, newCapacity);
+        stops = Arrays.copyOf(stops, newCapacity);
+        lookaheads = Arrays.copyOf(lookaheads, newCapacity);
+      }
+    }
+  }
+
+  /** Remembers the furthest character the lexer looked at. */
+  private static class TrackingInputStream extends ANTLRInputStream {
+    private int maxIndex = -1;
+
+    TrackingInputStream(String input) {
+      super(input);
+    }
+
+    @Override
+    public int LA(int i) {
+      if (i > 0 && p + i - 1 > maxIndex) {
+        maxIndex = p + i - 1;
+      }
+      return super.LA(i);
+    }
+  }
+}
@@ -0,0 +1,36 @@
+package monto.service.java8;
+
+import monto.service.java8.antlr.Java8Lexer;
+import monto.service.java8.antlr.Java8Parser;
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.TokenStream;
+
+/**
+ * Provides ANTLR lexer and parser instances for the Java 8 grammar. Lexers and parsers are mutable,
+ * so every thread gets its own instances. The DFA caches of the generated recognizers are static
+ * and thus still shared between all threads.
+ */
+public final class Java8Recognizers {
+  private static final ThreadLocal<Java8Lexer> LEXERS =
+      ThreadLocal.withInitial(() -> new Java8Lexer(new ANTLRInputStream()));
+  private static final ThreadLocal<Java8Parser> PARSERS =
+      ThreadLocal.withInitial(() -> new Java8Parser(new CommonTokenStream(LEXERS.get())));
+
+  private Java8Recognizers() {}
+
+  /** Returns the lexer of the current thread, reset to read from {@code input}. */
+  public static Java8Lexer lexer(CharStream input) {
+    Java8Lexer lexer = LEXERS.get();
+    lexer.setInputStream(input);
+    return lexer;
+  }
+
+  /** Returns the parser of the current thread, reset to read from {@code tokens}. */
+  public static Java8Parser parser(TokenStream tokens) {
+    Java8Parser parser = PARSERS.get();
+    parser.setTokenStream(tokens);
+    return parser;
+  }
+}
@@ -1,12 +1,48 @@
 package monto.service.java8;
 
+import java.net.URL;
+import java.util.List;
 import monto.service.ZMQConfiguration;
 import monto.service.completion.CodeCompletioner;
+import monto.service.completion.Completion;
+import monto.service.gson.GsonMonto;
+import monto.service.identifier.Identifier;
+import monto.service.java8.JavaOutliner.Visibility;
+import monto.service.java8.OutlineIcons.Kind;
+import monto.service.product.ProductMessage;
+import monto.service.product.Products;
+import monto.service.request.Request;
+import monto.service.source.Selection;
+import monto.service.source.SourceMessage;
 import monto.service.types.Languages;
+import monto.service.types.LongKey;
+import monto.service.types.Source;
 
+/**
+ * Completes the identifier at the cursor with the identifiers the identifier finder found in the
+ * source and its imports. The identifiers are looked up in an {@link IdentifierIndex}, which is
+ * built once per version of the identifier product instead of filtering all identifiers on every
+ * request.
+ *
+ * <p>The candidates are ranked by a {@link CompletionEngine}, only the best ones are sent. A
+ * completion replaces the text from its insertion offset, the start of the identifier at the
+ * cursor, up to the cursor.
+ *
+ * <p>Indexes are kept for the most recently completed sources up to a total size, the index of an
+ * evicted source is rebuilt on its next request.
+ */
 public class JavaCodeCompletioner extends CodeCompletioner {
 
-  public JavaCodeCompletioner(ZMQConfiguration zmqConfig) {
+  // Bytes of the indexes kept for the recently completed sources
+  private static final long MAX_INDEX_BYTES = 16 * 1024 * 1024;
+
+  private final SizeBoundedCache<Source, IndexedIdentifiers> indexes =
+      new SizeBoundedCache<>(MAX_INDEX_BYTES, indexed -> indexed.index.retainedSize());
+  private final OutlineIcons icons;
+  private final CompletionEngine engine;
+
+  /** @param maxCompletions the number of best ranked completions to send. */
+  public JavaCodeCompletioner(ZMQConfiguration zmqConfig, int maxCompletions) {
     super(
         zmqConfig,
         JavaServices.CODE_COMPLETIONER,
@@ -14,5 +50,91 @@ public class JavaCodeCompletioner extends CodeCompletioner {
         "A code completion service for Java",
         Languages.JAVA,
         JavaServices.IDENTIFIER_FINDER);
+    this.icons = new OutlineIcons(this::getResource);
+    this.engine = new CompletionEngine(maxCompletions);
+  }
+
+  @Override
+  public void onRequest(Request request) throws Exception {
+    SourceMessage version =
+        request
+            .getSourceMessage()
+            .orElseThrow(() -> new IllegalArgumentException("No version message in request"));
+    ProductMessage identifierMessage =
+        request
+            .getProductMessage(Products.IDENTIFIER, Languages.JAVA)
+            .orElseThrow(() -> new IllegalArgumentException("No identifier message in request"));
+    List<Selection> selections = version.getSelections();
+    if (selections == null || selections.isEmpty()) {
+      return;
+    }
+
+    long start = System.nanoTime();
+    IdentifierIndex index = index(version.getSource(), identifierMessage);
+    String contents = version.getContents();
+    int cursor = selections.get(0).getStartOffset();
+    int wordStart = cursor;
+    while (wordStart > 0 && Character.isJavaIdentifierPart(contents.charAt(wordStart - 1))) {
+      wordStart--;
+    }
+    String typed = contents.substring(wordStart, cursor);
+
+    List<Identifier> matches = engine.complete(index, typed, contents, cursor);
+    Completion[] completions = new Completion[matches.size()];
+    int next = 0;
+    for (Identifier identifier : matches) {
+      completions[next++] =
+          new Completion(
+              identifier.getIdentifier(),
+              identifier.getIdentifier(),
+              wordStart,
+              icon(identifier.getType()));
+    }
+
+    sendProductMessage(
+        version.getId(),
+        version.getSource(),
+        Products.COMPLETIONS,
+        Languages.JAVA,
+        GsonMonto.toJsonTree(completions),
+        identifierMessage.getTime() + System.nanoTime() - start);
+  }
+
+  /** Returns the index of the identifiers of a source, building it for new identifier products. */
+  private IdentifierIndex index(Source source, ProductMessage identifierMessage) {
+    IndexedIdentifiers indexed = indexes.get(source);
+    if (indexed == null || !indexed.id.equals(identifierMessage.getId())) {
+      indexed =
+          new IndexedIdentifiers(
+              identifierMessage.getId(),
+              new IdentifierIndex(GsonMonto.fromJsonArray(identifierMessage, Identifier[].class)));
+      indexes.put(source, indexed);
+    }
+    return indexed.index;
+  }
+
+  private URL icon(String type) {
+    switch (type) {
+      case "class":
+      case "interface":
+      case "enum":
+        return icons.get(Kind.CLASS, Visibility.DEFAULT);
+      case "method":
+        return icons.get(Kind.METHOD, Visibility.DEFAULT);
+      case "field":
+        return icons.get(Kind.FIELD, Visibility.DEFAULT);
+      default:
+        return null;
+    }
+  }
+
+  private static class IndexedIdentifiers {
+    private final LongKey id;
+    private final IdentifierIndex index;
+
+    IndexedIdentifiers(LongKey id, IdentifierIndex index) {
+      this.id = id;
+      this.index = index;
+    }
   }
 }
@@ -14,6 +14,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -26,11 +27,15 @@ import monto.service.command.Commands;
 import monto.service.dependency.DynamicDependency;
 import monto.service.dependency.RegisterCommandMessageDependencies;
 import monto.service.gson.GsonMonto;
+import monto.service.java8.launching.CompilationCache;
 import monto.service.java8.launching.CompileUtils;
 import monto.service.java8.launching.EventQueueReaderThread;
 import monto.service.java8.launching.InputStreamProductThread;
 import monto.service.java8.launching.JavaDebugSession;
+import monto.service.java8.launching.OutputCoalescing;
+import monto.service.java8.launching.OutputQuota;
 import monto.service.java8.launching.ProcessTerminationThread;
+import monto.service.java8.launching.SessionOutput;
 import monto.service.launching.DebugLaunchConfiguration;
 import monto.service.launching.StreamOutput;
 import monto.service.launching.debug.Breakpoint;
@@ -48,8 +53,15 @@ import monto.service.types.Languages;
 public class JavaDebugger extends MontoService {
   private final LaunchingConnector connector;
   private final Map<Integer, JavaDebugSession> debugSessionMap;
-
-  public JavaDebugger(ZMQConfiguration zmqConfig) {
+  private final CompilationCache compilationCache;
+  private final OutputCoalescing outputCoalescing;
+  private final OutputQuota outputQuota;
+
+  public JavaDebugger(
+      ZMQConfiguration zmqConfig,
+      CompilationCache compilationCache,
+      OutputCoalescing outputCoalescing,
+      OutputQuota outputQuota) {
     super(
         zmqConfig,
         JavaServices.DEBUGGER,
@@ -73,6 +85,9 @@ public class JavaDebugger extends MontoService {
 
     connector = Bootstrap.virtualMachineManager().defaultConnector();
     debugSessionMap = new HashMap<>();
+    this.compilationCache = compilationCache;
+    this.outputCoalescing = outputCoalescing;
+    this.outputQuota = outputQuota;
   }
 
   @Override
@@ -168,10 +183,12 @@ public class JavaDebugger extends MontoService {
         Path compileDirectory = Files.createTempDirectory(null);
         Path workingDirectory = Files.createTempDirectory(null);
 
-        CompileUtils.compileJavaClass(
-            mainClassSourceMessage.getSource().getPhysicalName(),
-            mainClassSourceMessage.getContents(),
-            compileDirectory.toAbsolutePath().toString());
+        CompileUtils.writeClasses(
+            compilationCache.compile(
+                mainClassSourceMessage.getSource().getPhysicalName(),
+                mainClassSourceMessage.getContents(),
+                Collections.singletonList("-g")),
+            compileDirectory);
 
         Map<String, Connector.Argument> connectorArguments = connector.defaultArguments();
 
@@ -219,20 +236,14 @@ public class JavaDebugger extends MontoService {
         Process process = vm.process();
         int sessionId = commandMessage.getSession();
 
+        SessionOutput output =
+            new SessionOutput(sessionId, outputQuota, getServiceId(), this::sendProductMessage);
         InputStreamProductThread stdoutThread =
             new InputStreamProductThread(
-                StreamOutput.SourceStream.OUT,
-                sessionId,
-                process.getInputStream(),
-                getServiceId(),
-                this::sendProductMessage);
+                StreamOutput.SourceStream.OUT, process.getInputStream(), output, outputCoalescing);
         InputStreamProductThread stderrThread =
             new InputStreamProductThread(
-                StreamOutput.SourceStream.ERR,
-                sessionId,
-                process.getErrorStream(),
-                getServiceId(),
-                this::sendProductMessage);
+                StreamOutput.SourceStream.ERR, process.getErrorStream(), output, outputCoalescing);
 
         stdoutThread.start();
         stderrThread.start();
@@ -243,6 +254,7 @@ public class JavaDebugger extends MontoService {
                 sessionId,
                 stdoutThread,
                 stderrThread,
+                output,
                 workingDirectory,
                 getServiceId(),
                 this::sendProductMessage);
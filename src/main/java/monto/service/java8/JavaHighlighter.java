@@ -1,9 +1,9 @@
 package monto.service.java8;
 
+import com.google.gson.JsonElement;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
 import monto.service.MontoService;
 import monto.service.ZMQConfiguration;
 import monto.service.configuration.BooleanOption;
@@ -14,6 +14,7 @@ import monto.service.configuration.Option;
 import monto.service.configuration.OptionGroup;
 import monto.service.configuration.Setting;
 import monto.service.gson.GsonMonto;
+import monto.service.highlighting.Font;
 import monto.service.highlighting.Token;
 import monto.service.highlighting.TokenCategory;
 import monto.service.java8.antlr.Java8Lexer;
@@ -23,17 +24,43 @@ import monto.service.registration.SourceDependency;
 import monto.service.request.Request;
 import monto.service.source.SourceMessage;
 import monto.service.types.Languages;
-import org.antlr.v4.runtime.ANTLRInputStream;
+import monto.service.types.LongKey;
+import monto.service.types.Source;
 import org.apache.commons.lang3.text.WordUtils;
 
 @SuppressWarnings("rawtypes")
 public class JavaHighlighter extends MontoService {
 
-  private Java8Lexer lexer = new Java8Lexer(new ANTLRInputStream());
+  protected static final String OPTION_ID_TOKEN_DELTAS = "tokenDeltas";
+  protected static final String OPTION_ID_SNAPSHOT_INTERVAL = "tokenSnapshotInterval";
+  // Bytes of the versions kept to compute deltas against, an entry retains about 64 bytes
+  private static final long MAX_EMITTED_BYTES = 1024 * 1024;
+
+  private final RequestWorkers workers;
+  private final DfaWarmup warmup;
+  private final IncrementalJavaLexer lexer = new IncrementalJavaLexer();
+  private final SizeBoundedCache<Source, EmittedTokens> emittedTokens =
+      new SizeBoundedCache<>(MAX_EMITTED_BYTES, emitted -> 64);
+  private volatile boolean sendTokenDeltas = false;
+  private volatile int snapshotInterval = 50;
+  // Fonts of the token categories, replaced as a whole by configuration messages
+  private volatile Font[] fonts = fonts();
   private static List<Option> options;
 
   static {
     options = new ArrayList<>();
+    options.add(
+        new BooleanOption(
+            OPTION_ID_TOKEN_DELTAS,
+            "Only send the tokens that changed since the last version",
+            false));
+    options.add(
+        new NumberOption(
+            OPTION_ID_SNAPSHOT_INTERVAL,
+            "Versions between full token snapshots, when sending token deltas",
+            50,
+            1,
+            10000));
 
     for (TokenCategory cat : TokenCategory.values()) {
       options.add(
@@ -48,7 +75,7 @@ public class JavaHighlighter extends MontoService {
     }
   }
 
-  public JavaHighlighter(ZMQConfiguration zmqConfig) {
+  public JavaHighlighter(ZMQConfiguration zmqConfig, RequestWorkers workers, DfaWarmup warmup) {
     super(
         zmqConfig,
         JavaServices.HIGHLIGHTER,
@@ -58,23 +85,41 @@ public class JavaHighlighter extends MontoService {
         options,
         dependencies(new SourceDependency(Languages.JAVA)),
         commands());
+    this.workers = workers;
+    this.warmup = warmup;
   }
 
   @Override
-  public void onRequest(Request request) throws IOException {
+  public void onRequest(Request request) throws Exception {
+    workers.execute(request.getSource(), () -> highlight(request), e -> requestFailed(request, e));
+  }
+
+  /** Reports a request that failed on a worker, so the client doesn't wait for its tokens. */
+  private void requestFailed(Request request, Exception e) {
+    request
+        .getSourceMessage()
+        .ifPresent(
+            version ->
+                sendProductMessageNotAvailable(
+                    version.getId(), version.getSource(), Products.TOKENS, Languages.JAVA, e, 0));
+  }
+
+  private void highlight(Request request) throws IOException {
     SourceMessage version =
         request
             .getSourceMessage()
             .orElseThrow(() -> new IllegalArgumentException("No version message in request"));
 
     long start = System.nanoTime();
-    lexer.setInputStream(new ANTLRInputStream(version.getContents()));
-    List<Token> tokens =
-        lexer
-            .getAllTokens()
-            .stream()
-            .map(token -> convertToken(token))
-            .collect(Collectors.toList());
+    IncrementalJavaLexer.LexedSource lexed = lexer.lex(version.getSource(), version.getContents());
+    warmup.record(version.getSource(), version.getContents());
+    JsonElement product;
+    if (sendTokenDeltas) {
+      product = GsonMonto.toJsonTree(tokenDelta(version, lexed));
+    } else {
+      emittedTokens.remove(version.getSource());
+      product = GsonMonto.toJsonTree(convertTokens(lexed, 0, lexed.size()));
+    }
     long end = System.nanoTime();
 
     sendProductMessage(
@@ -82,13 +127,65 @@ public class JavaHighlighter extends MontoService {
         version.getSource(),
         Products.TOKENS,
         Languages.JAVA,
-        GsonMonto.toJsonTree(tokens),
+        product,
         end - start);
   }
 
+  /**
+   * Describes the tokens of {@code lexed} relative to the tokens last emitted for the source. Sends
+   * a full snapshot if the lexer didn't derive them from the emitted tokens or if the snapshot
+   * interval is reached.
+   */
+  private TokenDelta tokenDelta(SourceMessage version, IncrementalJavaLexer.LexedSource lexed) {
+    EmittedTokens emitted = emittedTokens.get(version.getSource());
+    TokenDelta delta;
+    if (emitted == null || emitted.deltasSinceSnapshot + 1 >= snapshotInterval) {
+      delta = TokenDelta.snapshot(convertTokens(lexed, 0, lexed.size()));
+      emitted = new EmittedTokens();
+    } else if (emitted.sequence == lexed.getSequence()) {
+      delta = TokenDelta.delta(emitted.id, 0, 0, 0, new ArrayList<>());
+      emitted.deltasSinceSnapshot++;
+    } else if (emitted.sequence == lexed.getBaseSequence()) {
+      int changeStart = lexed.getChangeStart();
+      delta =
+          TokenDelta.delta(
+              emitted.id,
+              changeStart,
+              lexed.getChangeRemoved(),
+              lexed.getShift(),
+              convertTokens(lexed, changeStart, changeStart + lexed.getChangeInserted()));
+      emitted.deltasSinceSnapshot++;
+    } else {
+      delta = TokenDelta.snapshot(convertTokens(lexed, 0, lexed.size()));
+      emitted = new EmittedTokens();
+    }
+    emitted.id = version.getId();
+    emitted.sequence = lexed.getSequence();
+    emittedTokens.put(version.getSource(), emitted);
+    return delta;
+  }
+
+  private List<Token> convertTokens(IncrementalJavaLexer.LexedSource lexed, int from, int to) {
+    List<Token> tokens = new ArrayList<>(to - from);
+    Font[] fonts = this.fonts;
+    for (int i = from; i < to; i++) {
+      tokens.add(
+          convertToken(fonts, lexed.getType(i), lexed.getStartIndex(i), lexed.getStopIndex(i)));
+    }
+    return tokens;
+  }
+
   @Override
   public void onConfigurationMessage(Configuration message) throws Exception {
     for (Setting setting : message.getSettings()) {
+      if (setting.getOptionId().equals(OPTION_ID_TOKEN_DELTAS)) {
+        sendTokenDeltas = (boolean) setting.getValue();
+        continue;
+      }
+      if (setting.getOptionId().equals(OPTION_ID_SNAPSHOT_INTERVAL)) {
+        snapshotInterval = Math.max(1, ((NumberSetting) setting).getValue().intValue());
+        continue;
+      }
       String[] optionId = setting.getOptionId().split("-");
       String category = optionId[0];
       String option = optionId[1];
@@ -107,16 +204,38 @@ public class JavaHighlighter extends MontoService {
           break;
       }
     }
+    fonts = fonts();
+  }
+
+  /**
+   * Returns the fonts of all token categories, by ordinal. Configuration messages change the
+   * categories on the thread of the service, so the workers only read the fonts of the last
+   * configuration instead of the categories.
+   */
+  private static Font[] fonts() {
+    TokenCategory[] categories = TokenCategory.values();
+    Font[] fonts = new Font[categories.length];
+    for (TokenCategory category : categories) {
+      fonts[category.ordinal()] = category.getFont();
+    }
+    return fonts;
+  }
+
+  /** Version and lexer sequence of the tokens last sent for a source. */
+  private static class EmittedTokens {
+    private LongKey id;
+    private long sequence;
+    private int deltasSinceSnapshot;
   }
 
   public int colorValue(Setting setting) {
     return ((NumberSetting) setting).getValue().intValue();
   }
 
-  private Token convertToken(org.antlr.v4.runtime.Token token) {
+  private Token convertToken(Font[] fonts, int type, int startIndex, int stopIndex) {
 
     TokenCategory category;
-    switch (token.getType()) {
+    switch (type) {
       case Java8Lexer.COMMENT:
       case Java8Lexer.LINE_COMMENT:
         category = TokenCategory.COMMENT;
@@ -291,8 +410,6 @@ public class JavaHighlighter extends MontoService {
         category = TokenCategory.UNKNOWN;
     }
 
-    int offset = token.getStartIndex();
-    int length = token.getStopIndex() - offset + 1;
-    return new Token(offset, length, category.getFont());
+    return new Token(startIndex, stopIndex - startIndex + 1, fonts[category.ordinal()]);
   }
 }
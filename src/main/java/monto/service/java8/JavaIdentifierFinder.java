@@ -1,5 +1,6 @@
 package monto.service.java8;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -9,8 +10,6 @@ import java.util.Set;
 import java.util.stream.Collectors;
 import monto.service.MontoService;
 import monto.service.ZMQConfiguration;
-import monto.service.ast.ASTNode;
-import monto.service.ast.ASTNodeVisitor;
 import monto.service.configuration.BooleanOption;
 import monto.service.configuration.Configuration;
 import monto.service.configuration.Setting;
@@ -28,6 +27,7 @@ import monto.service.registration.SourceDependency;
 import monto.service.request.Request;
 import monto.service.source.SourceMessage;
 import monto.service.types.Languages;
+import monto.service.types.LongKey;
 import monto.service.types.ParseException;
 import monto.service.types.Source;
 
@@ -37,6 +37,16 @@ public class JavaIdentifierFinder extends MontoService {
   protected static final String OPTION_ID_SORT_IDENTIFIERS = "sortIdentifiers";
   protected boolean filterOutKeywords = true;
   protected boolean sortIdentifiersAlphabetically = true;
+  private final ProductBus productBus;
+  private final SymbolIndex symbolIndex;
+  // Bytes of the identifiers kept in each of the caches below
+  private static final long MAX_CACHED_BYTES = 16 * 1024 * 1024;
+  // Identifiers of the latest version of recent sources, found in their ASTs
+  private final SizeBoundedCache<Source, VersionedIdentifiers> sourceIdentifiers =
+      new SizeBoundedCache<>(MAX_CACHED_BYTES, VersionedIdentifiers::retainedSize);
+  // Identifiers of the latest identifier product of recently imported files
+  private final SizeBoundedCache<Source, VersionedIdentifiers> importedIdentifiers =
+      new SizeBoundedCache<>(MAX_CACHED_BYTES, VersionedIdentifiers::retainedSize);
 
   public static final Set<String> JAVA_KEYWORDS_AND_LITERALS =
       Collections.unmodifiableSet(
@@ -101,7 +111,13 @@ public class JavaIdentifierFinder extends MontoService {
                   // taken from: https://docs.oracle.com/javase/tutorial/java/nutsandbolts/_keywords.html
                   )));
 
-  public JavaIdentifierFinder(ZMQConfiguration zmqConfig) {
+  /**
+   * @param productBus bus to look up ASTs shared in this process, or null to always decode them.
+   * @param symbolIndex index of the identifiers of the project's types, which is updated with the
+   *     identifiers of every source and used to resolve imports.
+   */
+  public JavaIdentifierFinder(
+      ZMQConfiguration zmqConfig, ProductBus productBus, SymbolIndex symbolIndex) {
     super(
         zmqConfig,
         JavaServices.IDENTIFIER_FINDER,
@@ -119,6 +135,8 @@ public class JavaIdentifierFinder extends MontoService {
             new SourceDependency(Languages.JAVA),
             new ProductDependency(JavaServices.JAVACC_PARSER, Products.AST, Languages.JAVA)),
         commands());
+    this.productBus = productBus;
+    this.symbolIndex = symbolIndex;
   }
 
   @SuppressWarnings("rawtypes")
@@ -150,35 +168,33 @@ public class JavaIdentifierFinder extends MontoService {
     Collection<Identifier> identifiers;
     if (!mainAstMessage.isAvailable()) {
       // fallback to source message
-      identifiers = getCodewordsFromSourceMessage(mainSourceMessage);
-      if (filterOutKeywords) {
-        identifiers =
-            identifiers
-                .stream()
-                .filter(
-                    identifier -> !JAVA_KEYWORDS_AND_LITERALS.contains(identifier.getIdentifier()))
-                .collect(Collectors.toSet());
-      }
+      identifiers = getCodewordsFromSourceMessage(mainSourceMessage, filterOutKeywords);
     } else {
       String mainSourceCode = mainSourceMessage.getContents();
-      ASTNode mainAstRoot = GsonMonto.fromJson(mainAstMessage, ASTNode.class);
-      Set<String> importedFiles = getImportedFiles(mainSourceCode, mainAstRoot);
+      FlatAst mainAstRoot = FlatAst.fromMessage(mainAstMessage, productBus);
+      // find identifiers from main and combine them with the imported ones
+      VersionedIdentifiers cached = sourceIdentifiers.get(mainSourceMessage.getSource());
+      if (cached == null || !cached.id.equals(mainSourceMessage.getId())) {
+        Set<Identifier> found = getIdentifiersFromAST(mainSourceCode, mainAstRoot);
+        index(mainSourceMessage.getSource(), mainSourceCode, mainAstRoot, found);
+        cached = new VersionedIdentifiers(mainSourceMessage.getId(), found);
+        sourceIdentifiers.put(mainSourceMessage.getSource(), cached);
+      }
+      Set<Identifier> mainIdentifiers = new HashSet<>(cached.identifiers);
+      Set<String> importedFiles = resolveImports(mainSourceCode, mainAstRoot, mainIdentifiers);
+      identifiers = mainIdentifiers;
 
       if (containsAllIdentifierProducts(request, importedFiles)) {
-        // find identifiers from main and combine them with the imported ones
-        identifiers = getIdentifiersFromAST(mainSourceCode, mainAstRoot);
         for (String importedFile : importedFiles) {
-          List<Identifier> importedIdentifiers =
-              GsonMonto.fromJsonArray(
+          identifiers.addAll(
+              getImportedIdentifiers(
                   request
                       .getProductMessage(
                           new Source(importedFile), Products.IDENTIFIER, Languages.JAVA)
-                      .get(),
-                  Identifier[].class);
-          identifiers.addAll(importedIdentifiers);
+                      .get()));
         }
       } else {
-        // re-request all identifiers for imported files
+        // re-request identifiers for imported files that are not indexed yet
         Set<DynamicDependency> identifierDependencies =
             importedFiles
                 .stream()
@@ -216,27 +232,115 @@ public class JavaIdentifierFinder extends MontoService {
         mainAstMessage.getTime() + end - start);
   }
 
-  private Set<String> getImportedFiles(String sourceCode, ASTNode root) {
-    Set<String> imports = new HashSet<>();
+  /**
+   * Returns the identifiers of an imported file's identifier product. They are decoded only once
+   * per version of the file.
+   */
+  private Collection<Identifier> getImportedIdentifiers(ProductMessage identifierMessage) {
+    VersionedIdentifiers cached = importedIdentifiers.get(identifierMessage.getSource());
+    if (cached == null || !cached.id.equals(identifierMessage.getId())) {
+      cached =
+          new VersionedIdentifiers(
+              identifierMessage.getId(),
+              GsonMonto.fromJsonArray(identifierMessage, Identifier[].class));
+      importedIdentifiers.put(identifierMessage.getSource(), cached);
+    }
+    return cached.identifiers;
+  }
+
+  /** The identifiers of a version of a source. */
+  private static class VersionedIdentifiers {
+    private final LongKey id;
+    private final Collection<Identifier> identifiers;
+
+    VersionedIdentifiers(LongKey id, Collection<Identifier> identifiers) {
+      this.id = id;
+      this.identifiers = Collections.unmodifiableCollection(identifiers);
+    }
+
+    /** Estimates the bytes retained by the identifiers and their set on a 64-bit JVM. */
+    private long retainedSize() {
+      long size = 64;
+      for (Identifier identifier : identifiers) {
+        // Set entry, identifier and its two strings
+        size += 48 + 24 + 2 * 40;
+        size += 2 * (identifier.getIdentifier().length() + identifier.getType().length());
+      }
+      return size;
+    }
+  }
+
+  /** Adds the identifiers of a source to the symbol index, under each of its top level types. */
+  private void index(Source source, String sourceCode, FlatAst ast, Set<Identifier> identifiers) {
+    String packageName = "";
+    List<String> typeNames = new ArrayList<>();
     // root is always a CompilationUnit
-    List<ASTNode> compilationUnitChildren = root.getChildren();
-    compilationUnitChildren.forEach(
-        child ->
-            child.accept(
-                node -> {
-                  switch (node.getName()) {
-                    case "ImportDeclaration":
-                      // first child of ImportDeclaration is the namedExpr
-                      imports.add(
-                          getRightMostImportNameExpr(node.getChild(0)).extract(sourceCode)
-                              + ".java");
-                      // TODO: horribly broken: Imported files are only <ClassName>.java
-                      // no package, project, or src directory is included
-                      // This will not work with the new Source type, that consists of physical and logical name
-                      break;
-                  }
-                }));
-    return imports;
+    for (int node = ast.getFirstChild(ast.getRoot()); node != -1; node = ast.getNextSibling(node)) {
+      switch (ast.getName(node)) {
+        case "PackageDeclaration":
+          packageName = ast.extract(ast.getFirstChild(node), sourceCode);
+          break;
+        case "ClassDeclaration":
+        case "InterfaceDeclaration":
+        case "EnumDeclaration":
+          typeNames.add(ast.extract(ast.getChild(node, 1), sourceCode));
+          break;
+      }
+    }
+    // Imports and local variables are not declared by the types
+    List<Identifier> members = new ArrayList<>();
+    for (Identifier identifier : identifiers) {
+      if (!identifier.getType().equals("import") && !identifier.getType().equals("variable")) {
+        members.add(identifier);
+      }
+    }
+    symbolIndex.update(source.getPhysicalName(), packageName, typeNames, members);
+  }
+
+  /**
+   * Adds the identifiers of imported types that are in the symbol index to {@code identifiers}.
+   *
+   * @return the files of imported types that are not in the index.
+   */
+  private Set<String> resolveImports(String sourceCode, FlatAst ast, Set<Identifier> identifiers) {
+    Set<String> importedFiles = new HashSet<>();
+    for (int node = ast.getFirstChild(ast.getRoot()); node != -1; node = ast.getNextSibling(node)) {
+      if (!ast.getName(node).equals("ImportDeclaration")) {
+        continue;
+      }
+      // first child of ImportDeclaration is the namedExpr, asterisk and static are no nodes
+      int nameExpr = ast.getFirstChild(node);
+      String name = ast.extract(nameExpr, sourceCode);
+      boolean isStatic =
+          sourceCode.substring(ast.getOffset(node), ast.getOffset(nameExpr)).contains("static");
+      boolean onDemand =
+          sourceCode.substring(ast.getEndOffset(nameExpr), ast.getEndOffset(node)).contains("*");
+
+      if (onDemand && !isStatic) {
+        // a package, only its indexed types can be resolved
+        for (String type : symbolIndex.getTypes(name)) {
+          identifiers.addAll(symbolIndex.get(type));
+        }
+        continue;
+      }
+      // static imports name a member of the type, without asterisk
+      String type = isStatic && !onDemand ? qualifier(name) : name;
+      List<Identifier> members = symbolIndex.get(type);
+      if (members != null) {
+        identifiers.addAll(members);
+      } else {
+        // TODO: Imported files are only <ClassName>.java
+        // no package, project, or src directory is included
+        // This will not work with the new Source type, that consists of physical and logical name
+        importedFiles.add(type.substring(type.lastIndexOf('.') + 1) + ".java");
+      }
+    }
+    return importedFiles;
+  }
+
+  private static String qualifier(String name) {
+    int dot = name.lastIndexOf('.');
+    return dot == -1 ? name : name.substring(0, dot);
   }
 
   private boolean containsAllIdentifierProducts(Request request, Set<String> importedFiles) {
@@ -250,50 +354,51 @@ public class JavaIdentifierFinder extends MontoService {
     return true;
   }
 
-  private Set<Identifier> getIdentifiersFromAST(String sourceCode, ASTNode astRoot)
+  private Set<Identifier> getIdentifiersFromAST(String sourceCode, FlatAst ast)
       throws ParseException {
-    AllIdentifiers completionVisitor = new AllIdentifiers(sourceCode);
-    astRoot.accept(completionVisitor);
+    AllIdentifiers completionVisitor = new AllIdentifiers(sourceCode, ast);
+    completionVisitor.visit(ast.getRoot());
     return completionVisitor.getIdentifiers();
   }
 
-  private class AllIdentifiers implements ASTNodeVisitor {
+  private class AllIdentifiers {
     private Set<Identifier> identifiers = new HashSet<>();
     private String sourceCode;
+    private FlatAst ast;
     private boolean fieldDeclaration = false;
 
-    public AllIdentifiers(String sourceCode) {
+    public AllIdentifiers(String sourceCode, FlatAst ast) {
       this.sourceCode = sourceCode;
+      this.ast = ast;
     }
 
-    @Override
-    public void visit(ASTNode node) {
-      switch (node.getName()) {
+    public void visit(int node) {
+      switch (ast.getName(node)) {
         case "ImportDeclaration":
-          ASTNode importNameExpr = node.getChild(0);
-          IRegion rightMostImportRegion = getRightMostImportNameExpr(importNameExpr);
+          int importNameExpr = ast.getFirstChild(node);
+          IRegion rightMostImportRegion = getRightMostImportNameExpr(ast, importNameExpr);
           identifiers.add(new Identifier(rightMostImportRegion.extract(sourceCode), "import"));
           break;
 
         case "ClassDeclaration":
-          identifiers.add(new Identifier(node.getChild(1).extract(sourceCode), "class"));
+          identifiers.add(new Identifier(extract(ast.getChild(node, 1)), "class"));
           traverseChildren(node);
           break;
 
         case "EnumDeclaration":
-          String enumName = node.getChild(1).extract(sourceCode);
+          String enumName = extract(ast.getChild(node, 1));
           identifiers.add(new Identifier(enumName, "enum"));
-          node.getChildren()
-              .stream()
-              .filter(identifier -> identifier.getName().equals("EnumConstantDeclaration"))
-              .forEach(
-                  identifier ->
-                      identifiers.add(
-                          new Identifier(enumName + "." + identifier.extract(sourceCode), "enum")));
+          for (int constant = ast.getFirstChild(node);
+              constant != -1;
+              constant = ast.getNextSibling(constant)) {
+            if (ast.getName(constant).equals("EnumConstantDeclaration")) {
+              identifiers.add(new Identifier(enumName + "." + extract(constant), "enum"));
+            }
+          }
           break;
 
         case "InterfaceDeclaration":
-          identifiers.add(new Identifier(node.getChild(1).extract(sourceCode), "interface"));
+          identifiers.add(new Identifier(extract(ast.getChild(node, 1)), "interface"));
           traverseChildren(node);
           break;
 
@@ -305,14 +410,14 @@ public class JavaIdentifierFinder extends MontoService {
 
         case "VariableDeclaratorId":
           if (fieldDeclaration) {
-            identifiers.add(new Identifier(node.extract(sourceCode), "field"));
+            identifiers.add(new Identifier(extract(node), "field"));
           } else {
-            identifiers.add(new Identifier(node.extract(sourceCode), "variable"));
+            identifiers.add(new Identifier(extract(node), "variable"));
           }
           break;
 
         case "MethodDeclaration":
-          identifiers.add(new Identifier(node.getChild(2).extract(sourceCode), "method"));
+          identifiers.add(new Identifier(extract(ast.getChild(node, 2)), "method"));
           traverseChildren(node);
           break;
 
@@ -321,56 +426,89 @@ public class JavaIdentifierFinder extends MontoService {
       }
     }
 
-    private void traverseChildren(ASTNode node) {
-      if (node.getChildren().size() > 0) {
-        node.getChildren().forEach(child -> child.accept(this));
+    private void traverseChildren(int node) {
+      for (int child = ast.getFirstChild(node); child != -1; child = ast.getNextSibling(child)) {
+        visit(child);
       }
     }
 
+    private String extract(int node) {
+      return ast.extract(node, sourceCode);
+    }
+
     public Set<Identifier> getIdentifiers() {
       return identifiers;
     }
   }
 
-  private IRegion getRightMostImportNameExpr(ASTNode importNameExpr) {
-    if (importNameExpr.getChildren().size() > 0) {
-      IRegion nextHigherRegion = importNameExpr.getChild(0);
-      int lengthDiff = importNameExpr.getEndOffset() - nextHigherRegion.getEndOffset();
+  private IRegion getRightMostImportNameExpr(FlatAst ast, int importNameExpr) {
+    int nextHigher = ast.getFirstChild(importNameExpr);
+    if (nextHigher != -1) {
+      int lengthDiff = ast.getEndOffset(importNameExpr) - ast.getEndOffset(nextHigher);
       // + 1 to exclude separating .
       // - 1 to exclude ;
-      return new Region(nextHigherRegion.getEndOffset() + 1, lengthDiff - 1);
+      return new Region(ast.getEndOffset(nextHigher) + 1, lengthDiff - 1);
 
     } else {
-      return importNameExpr;
+      return ast.region(importNameExpr);
     }
   }
 
-  private Set<Identifier> getCodewordsFromSourceMessage(SourceMessage sourceMessage) {
+  /**
+   * Finds the codewords of a source in a single pass, without regular expressions or intermediate
+   * copies of the source. Comments, string and character literals and numbers are skipped, every
+   * other word that can be a Java identifier is a codeword.
+   */
+  private static Set<Identifier> getCodewordsFromSourceMessage(
+      SourceMessage sourceMessage, boolean filterOutKeywords) {
     String content = sourceMessage.getContents();
-    // cleanup source code by removing elements, that are not identifiers
-
-    // remove comments
-    content = content.replaceAll("(//.*|/\\*([\\S\\s]+?)\\*/)", " ");
-    // [\S\s] is almost the same as ., except that it matches newlines too ([\W\w] or [\D\d] work too)
-    // +? makes + ungreedy (doesn't match until last found instance, but next found instance (same for *?)
-
-    // remove strings and chars
-    content = content.replaceAll("(\".*\"|'.*')", "");
-    // replace everything non alphanumeric with one space
-    content = content.replaceAll("\\W+", " ");
-
-    // split at whitespaces
-    return Arrays.stream(content.split("\\s+"))
-        // remove numbers (including scientific notation, explicit double, float and long values and hexadecimals)
-        // since Java 7 numeric literal can contain underscors to improve readability
+    Set<String> words = new HashSet<>();
+    int length = content.length();
+    int i = 0;
+    while (i < length) {
+      char c = content.charAt(i);
+      if (c == '/' && i + 1 < length && content.charAt(i + 1) == '/') {
+        i = content.indexOf('\n', i);
+        if (i == -1) {
+          break;
+        }
+      } else if (c == '/' && i + 1 < length && content.charAt(i + 1) == '*') {
+        i = content.indexOf("*/", i + 2);
+        if (i == -1) {
+          break;
+        }
+        i += 2;
+      } else if (c == '"' || c == '\'') {
+        // literals end at the closing quote or, if it is missing, at the end of the line
+        i++;
+        while (i < length && content.charAt(i) != c && content.charAt(i) != '\n') {
+          i += content.charAt(i) == '\\' ? 2 : 1;
+        }
+        i++;
+      } else if (Character.isJavaIdentifierStart(c)) {
+        int start = i;
+        while (i < length && Character.isJavaIdentifierPart(content.charAt(i))) {
+          i++;
+        }
+        words.add(content.substring(start, i));
+      } else if (c >= '0' && c <= '9') {
+        // numbers including hexadecimals, underscores, suffixes and the digits of exponents
         // https://docs.oracle.com/javase/tutorial/java/nutsandbolts/datatypes.html
-        // also used document: http://web.itu.edu.tr/~bkurt/Courses/bte541/bte541b_mod03.pdf
-        .filter((String str) -> !(str.matches("^[\\d_eE]+[dDfFlL]?$") || str.matches("^0[xX].*")))
-        // create non-duplicate set
-        .collect(Collectors.toSet())
-        .stream()
-        // convert strings to Identifier objetcs
-        .map((String identifier) -> new Identifier(identifier, "generic"))
-        .collect(Collectors.toSet());
+        while (i < length
+            && (Character.isJavaIdentifierPart(content.charAt(i)) || content.charAt(i) == '.')) {
+          i++;
+        }
+      } else {
+        i++;
+      }
+    }
+    if (filterOutKeywords) {
+      words.removeAll(JAVA_KEYWORDS_AND_LITERALS);
+    }
+    Set<Identifier> codewords = new HashSet<>();
+    for (String word : words) {
+      codewords.add(new Identifier(word, "generic"));
+    }
+    return codewords;
   }
 }
@@ -10,15 +10,18 @@ import com.github.javaparser.ast.body.FieldDeclaration;
 import com.github.javaparser.ast.body.MethodDeclaration;
 import com.github.javaparser.ast.body.ModifierSet;
 import com.github.javaparser.ast.body.TypeDeclaration;
+import com.google.gson.JsonElement;
 import java.io.IOException;
 import java.io.StringReader;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
 import monto.service.MontoService;
 import monto.service.ZMQConfiguration;
-import monto.service.ast.ASTNode;
-import monto.service.gson.GsonMonto;
 import monto.service.product.Products;
 import monto.service.region.IRegion;
 import monto.service.region.Region;
@@ -29,8 +32,31 @@ import monto.service.source.SourceMessage;
 import monto.service.types.Languages;
 
 public class JavaJavaCCParser extends MontoService {
+  private static final ClassValue<String> SIMPLE_NAMES =
+      new ClassValue<String>() {
+        @Override
+        protected String computeValue(Class<?> type) {
+          return type.getSimpleName();
+        }
+      };
+
+  private final SizeBoundedCache<ContentHash, JsonElement> astCache;
+  private final boolean flatAst;
+  private final ProductBus productBus;
 
-  public JavaJavaCCParser(ZMQConfiguration zmqConfig) {
+  /**
+   * @param astCache encoded ASTs by the hash of their source contents, or null to parse every
+   *     request.
+   * @param flatAst whether to produce ASTs in the format of {@link FlatAst} instead of nested
+   *     ASTNodes.
+   * @param productBus bus to share ASTs with consumers in this process in addition to sending them
+   *     through the broker, or null.
+   */
+  public JavaJavaCCParser(
+      ZMQConfiguration zmqConfig,
+      SizeBoundedCache<ContentHash, JsonElement> astCache,
+      boolean flatAst,
+      ProductBus productBus) {
     super(
         zmqConfig,
         JavaServices.JAVACC_PARSER,
@@ -40,6 +66,10 @@ public class JavaJavaCCParser extends MontoService {
         options(),
         dependencies(new SourceDependency(Languages.JAVA)),
         commands());
+    this.astCache = astCache;
+    this.flatAst = flatAst;
+    this.productBus = productBus;
+    JsonAst.checkLayout();
   }
 
   @Override
@@ -50,18 +80,39 @@ public class JavaJavaCCParser extends MontoService {
             .orElseThrow(() -> new IllegalArgumentException("No version message in request"));
     long start = System.nanoTime();
 
-    // Remove all tabs to correct source locations of JavaCC Parser
-    String contents = sourceMessage.getContents().replaceAll("\\t", " ");
-
+    ContentHash hash = astCache != null ? ContentHash.of(sourceMessage.getContents()) : null;
+    JsonElement ast = hash != null ? astCache.get(hash) : null;
     try {
-      Node root = JavaParser.parse(new StringReader(contents), true);
-      ASTNode convertedRoot = encode(Region.getLineOffsets(sourceMessage.getContents()), root);
+      if (ast == null) {
+        Node root = JavaParser.parse(new StringReader(sourceMessage.getContents()), true);
+        // JavaParser expands tabs when counting columns, the table maps them back
+        LineColumnTable lines = new LineColumnTable(sourceMessage.getContents());
+        FlatAst shared = null;
+        if (productBus != null || flatAst) {
+          FlatAst.Builder builder = new FlatAst.Builder();
+          shared = builder.build(encode(builder, lines, root));
+        }
+        if (productBus != null) {
+          productBus.publish(sourceMessage.getSource(), sourceMessage.getId(), shared);
+        }
+        if (flatAst) {
+          ast = shared.toJson();
+        } else {
+          ast = encode(JsonAst.factory(), lines, root);
+        }
+        if (hash != null) {
+          astCache.put(hash, ast);
+        }
+      } else if (productBus != null) {
+        // Decoded once here instead of by every consumer in this process
+        productBus.publish(sourceMessage.getSource(), sourceMessage.getId(), FlatAst.fromJson(ast));
+      }
       sendProductMessage(
           sourceMessage.getId(),
           sourceMessage.getSource(),
           Products.AST,
           Languages.JAVA,
-          GsonMonto.toJsonTree(convertedRoot),
+          ast,
           System.nanoTime() - start);
     } catch (ParseException e) {
       sendProductMessageNotAvailable(
@@ -74,115 +125,188 @@ public class JavaJavaCCParser extends MontoService {
     }
   }
 
-  private ASTNode astNode(String name, List<ASTNode> children, IRegion region) {
-    return new ASTNode(name, region.getStartOffset(), region.getLength(), children);
+  /**
+   * Estimates the bytes retained by an encoded AST, to weigh entries of the AST cache. The
+   * constants approximate the object layout of Gson's JSON elements on a 64-bit JVM.
+   */
+  public static long retainedSize(JsonElement element) {
+    if (element.isJsonObject()) {
+      long size = 64;
+      for (Map.Entry<String, JsonElement> entry : element.getAsJsonObject().entrySet()) {
+        size += 48 + retainedSize(entry.getValue());
+      }
+      return size;
+    } else if (element.isJsonArray()) {
+      long size = 40;
+      for (JsonElement child : element.getAsJsonArray()) {
+        size += 8 + retainedSize(child);
+      }
+      return size;
+    } else if (element.isJsonPrimitive() && element.getAsJsonPrimitive().isString()) {
+      return 56 + 2 * element.getAsString().length();
+    } else {
+      return 32;
+    }
+  }
+
+  /** Parses {@code contents} to the flat AST this parser shares on the product bus. */
+  FlatAst parseFlat(String contents) throws ParseException {
+    Node root = JavaParser.parse(new StringReader(contents), true);
+    FlatAst.Builder builder = new FlatAst.Builder();
+    return builder.build(encode(builder, new LineColumnTable(contents), root));
+  }
+
+  /**
+   * Converts the JavaParser tree to the nodes of {@code factory}. Deep trees, like long chains of
+   * binary expressions, are converted with an explicit stack instead of recursion, and every node
+   * gets a child list of exactly the right size.
+   */
+  private <T> T encode(AstFactory<T> factory, LineColumnTable lines, Node root) {
+    Deque<Frame<T>> stack = new ArrayDeque<>();
+    push(stack, frame(factory, lines, root));
+    while (true) {
+      Frame<T> frame = stack.peek();
+      if (frame.nextChild < frame.childNodes.size()) {
+        Node child = frame.childNodes.get(frame.nextChild++);
+        push(stack, frame(factory, lines, child));
+        continue;
+      }
+      stack.pop();
+      T node =
+          factory.node(
+              frame.name,
+              frame.region.getStartOffset(),
+              frame.region.getLength(),
+              children(frame.children));
+      Frame<T> parent = stack.peek();
+      if (parent == null) {
+        return node;
+      }
+      parent.add(node, frame.slot);
+    }
   }
 
-  private ASTNode encode(int[] offsets, Node node) {
-    String name = node.getClass().getSimpleName();
-    IRegion region = region(offsets, node);
-    List<ASTNode> children =
-        node.getChildrenNodes()
-            .stream()
-            .map(child -> encode(offsets, child))
-            .collect(Collectors.toList());
-
-    // Not all parts of the AST appear in node.getChildrenNodes, so we have to
-    // include these parts manually.
+  private static <T> void push(Deque<Frame<T>> stack, Frame<T> frame) {
+    stack.push(frame);
+    // The parameters of constructors are converted before the children, into their own slot
+    if (frame.parameters != null) {
+      stack.push(frame.parameters);
+    }
+  }
+
+  /**
+   * Creates the frame that converts {@code node}. Not all parts of the AST appear in
+   * node.getChildrenNodes, so these parts are put into their slots of the child list right away.
+   */
+  private <T> Frame<T> frame(AstFactory<T> factory, LineColumnTable lines, Node node) {
+    String name = SIMPLE_NAMES.get(node.getClass());
+    Region region = region(lines, node);
+    List<Node> childNodes = node.getChildrenNodes();
+    Frame<T> frame;
     switch (name) {
       case "ClassOrInterfaceDeclaration":
         {
           ClassOrInterfaceDeclaration decl = (ClassOrInterfaceDeclaration) node;
-          if (decl.isInterface()) name = "InterfaceDeclaration";
-          else name = "ClassDeclaration";
-          children.add(0, makeModifierObject(offsets, decl.getModifiers(), decl));
-          children.add(1, makeIdentifierObject(offsets, decl.getNameExpr()));
+          frame =
+              new Frame<>(
+                  decl.isInterface() ? "InterfaceDeclaration" : "ClassDeclaration",
+                  region,
+                  childNodes,
+                  2,
+                  -1);
+          frame.children[0] = makeModifierObject(factory, region, decl.getModifiers());
+          frame.children[1] = makeIdentifierObject(factory, lines, decl.getNameExpr());
         }
         break;
       case "EmptyTypeDeclaration":
       case "EnumDeclaration":
         {
           TypeDeclaration enumN = (TypeDeclaration) node;
-          children.add(0, makeModifierObject(offsets, enumN.getModifiers(), enumN));
-          children.add(1, makeIdentifierObject(offsets, enumN.getNameExpr()));
+          frame = new Frame<>(name, region, childNodes, 2, -1);
+          frame.children[0] = makeModifierObject(factory, region, enumN.getModifiers());
+          frame.children[1] = makeIdentifierObject(factory, lines, enumN.getNameExpr());
         }
         break;
       case "MethodDeclaration":
         {
+          // The name follows the first child, which is the result type
           MethodDeclaration decl = (MethodDeclaration) node;
-          children.add(0, makeModifierObject(offsets, decl.getModifiers(), decl));
-          children.add(2, makeIdentifierObject(offsets, decl.getNameExpr()));
+          frame = new Frame<>(name, region, childNodes, 2, -1);
+          frame.children[0] = makeModifierObject(factory, region, decl.getModifiers());
+          frame.children[2] = makeIdentifierObject(factory, lines, decl.getNameExpr());
         }
         break;
       case "FieldDeclaration":
         {
           FieldDeclaration decl = (FieldDeclaration) node;
-          children.add(0, makeModifierObject(offsets, decl.getModifiers(), decl));
+          frame = new Frame<>(name, region, childNodes, 1, -1);
+          frame.children[0] = makeModifierObject(factory, region, decl.getModifiers());
         }
         break;
       case "ConstructorDeclaration":
         {
           ConstructorDeclaration decl = (ConstructorDeclaration) node;
-          children.add(0, makeModifierObject(offsets, decl.getModifiers(), decl));
-          children.add(1, makeIdentifierObject(offsets, decl.getNameExpr()));
-          List<ASTNode> paramsChildren =
-              decl.getParameters()
-                  .stream()
-                  .map(param -> encode(offsets, param))
-                  .collect(Collectors.toList());
-          children.add(2, astNode("Parameters", paramsChildren, region(offsets, decl)));
+          frame = new Frame<>(name, region, childNodes, 3, -1);
+          frame.children[0] = makeModifierObject(factory, region, decl.getModifiers());
+          frame.children[1] = makeIdentifierObject(factory, lines, decl.getNameExpr());
+          frame.parameters = new Frame<>("Parameters", region, decl.getParameters(), 0, 2);
         }
         break;
       case "EnumConstantDeclaration":
         {
           EnumConstantDeclaration decl = (EnumConstantDeclaration) node;
-          ASTNode idObj =
-              astNode(
+          frame = new Frame<>(name, region, childNodes, 1, -1);
+          frame.children[0] =
+              makeLeaf(
+                  factory,
                   "Identifier",
-                  new ArrayList<>(),
                   Region.fromLineNumberColumn(
-                      offsets,
+                      lines.getLineOffsets(),
                       decl.getBeginLine(),
-                      decl.getBeginColumn(),
+                      lines.charColumn(decl.getBeginLine(), decl.getBeginColumn()),
                       decl.getEndLine(),
-                      decl.getEndColumn() + decl.getName().length()));
-          children.add(0, idObj);
+                      lines.charColumn(decl.getEndLine(), decl.getEndColumn())
+                          + decl.getName().length()));
         }
         break;
       default:
+        frame = new Frame<>(name, region, childNodes, 0, -1);
         break;
     }
+    return frame;
+  }
 
-    return new ASTNode(name, region.getStartOffset(), region.getLength(), children);
+  private <T> T makeLeaf(AstFactory<T> factory, String name, IRegion region) {
+    return factory.node(name, region.getStartOffset(), region.getLength(), Collections.emptyList());
   }
 
-  private ASTNode makeIdentifierObject(int[] offsets, Node name) {
-    return astNode("Identifier", new ArrayList<>(), region(offsets, name));
+  private <T> T makeIdentifierObject(AstFactory<T> factory, LineColumnTable lines, Node name) {
+    return makeLeaf(factory, "Identifier", region(lines, name));
   }
 
-  private ASTNode makeModifierObject(int[] offsets, int modifiers, Node n) {
-    IRegion modRegion =
-        Region.fromLineNumberColumn(
-            offsets, n.getBeginLine(), n.getBeginColumn(), n.getEndLine(), n.getEndColumn());
+  private <T> T makeModifierObject(AstFactory<T> factory, IRegion region, int modifiers) {
     List<String> mods = modifiers(modifiers);
-    List<ASTNode> modChildrenArray = new ArrayList<>();
-    for (String mod : mods) {
-      modChildrenArray.add(astNode(mod, new ArrayList<>(), modRegion));
+    Object[] modChildren = new Object[mods.size()];
+    for (int i = 0; i < modChildren.length; i++) {
+      modChildren[i] = makeLeaf(factory, mods.get(i), region);
     }
-    return astNode("Modifiers", modChildrenArray, modRegion);
+    return factory.node(
+        "Modifiers", region.getStartOffset(), region.getLength(), children(modChildren));
+  }
+
+  /** Wraps an array of nodes that were all created by the same factory. */
+  @SuppressWarnings("unchecked")
+  private static <T> List<T> children(Object[] children) {
+    return children.length == 0 ? Collections.emptyList() : (List<T>) Arrays.asList(children);
   }
 
-  private Region region(int[] offsets, Node node) {
-    return Region.fromLineNumberColumn(
-        offsets,
-        node.getBeginLine(),
-        node.getBeginColumn(),
-        node.getEndLine(),
-        node.getEndColumn());
+  private Region region(LineColumnTable lines, Node node) {
+    return lines.region(
+        node.getBeginLine(), node.getBeginColumn(), node.getEndLine(), node.getEndColumn());
   }
 
   private List<String> modifiers(int modifier) {
-    List<String> modifiers = new ArrayList<>();
+    List<String> modifiers = new ArrayList<>(Integer.bitCount(modifier));
     if (ModifierSet.isAbstract(modifier)) modifiers.add("abstract");
     if (ModifierSet.isFinal(modifier)) modifiers.add("final");
     if (ModifierSet.isNative(modifier)) modifiers.add("native");
@@ -196,4 +320,40 @@ public class JavaJavaCCParser extends MontoService {
     if (ModifierSet.isVolatile(modifier)) modifiers.add("volatile");
     return modifiers;
   }
+
+  /** A node whose children are being converted. */
+  private static class Frame<T> {
+    private final String name;
+    private final IRegion region;
+    private final List<? extends Node> childNodes;
+    private final Object[] children;
+    private final int slot;
+    private int nextChild = 0;
+    private int nextSlot = 0;
+    private Frame<T> parameters;
+
+    /**
+     * @param extraChildren number of children that don't appear in {@code childNodes}.
+     * @param slot index in the child list of the parent, or -1 for the next free one.
+     */
+    Frame(
+        String name, IRegion region, List<? extends Node> childNodes, int extraChildren, int slot) {
+      this.name = name;
+      this.region = region;
+      this.childNodes = childNodes;
+      this.children = new Object[extraChildren + childNodes.size()];
+      this.slot = slot;
+    }
+
+    void add(T child, int childSlot) {
+      if (childSlot >= 0) {
+        children[childSlot] = child;
+        return;
+      }
+      while (children[nextSlot] != null) {
+        nextSlot++;
+      }
+      children[nextSlot++] = child;
+    }
+  }
 }
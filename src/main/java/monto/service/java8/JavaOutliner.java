@@ -1,42 +1,83 @@
 package monto.service.java8;
 
+import com.google.gson.JsonElement;
 import java.net.URL;
 import java.util.ArrayDeque;
-import java.util.ArrayList;
 import java.util.Deque;
-import java.util.List;
-import java.util.stream.Collectors;
 import monto.service.MontoService;
 import monto.service.ZMQConfiguration;
-import monto.service.ast.ASTNode;
-import monto.service.ast.ASTNodeVisitor;
+import monto.service.configuration.BooleanOption;
+import monto.service.configuration.Configuration;
+import monto.service.configuration.Setting;
 import monto.service.gson.GsonMonto;
+import monto.service.java8.OutlineIcons.Kind;
 import monto.service.outline.Outline;
 import monto.service.product.ProductMessage;
 import monto.service.product.Products;
-import monto.service.region.IRegion;
 import monto.service.registration.ProductDependency;
 import monto.service.registration.ProductDescription;
 import monto.service.registration.SourceDependency;
 import monto.service.request.Request;
 import monto.service.source.SourceMessage;
 import monto.service.types.Languages;
+import monto.service.types.LongKey;
 import monto.service.types.ParseException;
+import monto.service.types.Source;
 
 public class JavaOutliner extends MontoService {
 
-  public JavaOutliner(ZMQConfiguration zmqConfig) {
+  protected static final String OPTION_ID_OUTLINE_DELTAS = "outlineDeltas";
+  // Bytes of the outlines kept to compute deltas against
+  private static final long MAX_EMITTED_BYTES = 16 * 1024 * 1024;
+
+  private final ProductBus productBus;
+  private final OutlineIcons icons;
+  private final IncrementalJavaLexer lexer;
+  private final SkeletonOutliner skeletonOutliner;
+  private final OutlineDiff outlineDiff;
+  private final SizeBoundedCache<Source, EmittedOutline> emittedOutlines =
+      new SizeBoundedCache<>(MAX_EMITTED_BYTES, EmittedOutline::retainedSize);
+  private volatile boolean sendOutlineDeltas = false;
+
+  /**
+   * @param productBus bus to look up ASTs shared in this process, or null to always decode them.
+   * @param skeleton whether to outline sources with a {@link SkeletonOutliner}, which doesn't
+   *     depend on an AST and skips method bodies.
+   */
+  public JavaOutliner(ZMQConfiguration zmqConfig, ProductBus productBus, boolean skeleton) {
     super(
         zmqConfig,
         JavaServices.OUTLINER,
         "Outline",
         "An outline service for Java",
         productDescriptions(new ProductDescription(Products.OUTLINE, Languages.JAVA)),
-        options(),
-        dependencies(
-            new SourceDependency(Languages.JAVA),
-            new ProductDependency(JavaServices.JAVACC_PARSER, Products.AST, Languages.JAVA)),
+        options(
+            new BooleanOption(
+                OPTION_ID_OUTLINE_DELTAS,
+                "Only send the parts of the outline that changed since the last version",
+                false)),
+        skeleton
+            ? dependencies(new SourceDependency(Languages.JAVA))
+            : dependencies(
+                new SourceDependency(Languages.JAVA),
+                new ProductDependency(JavaServices.JAVACC_PARSER, Products.AST, Languages.JAVA)),
         commands());
+    this.productBus = productBus;
+    this.icons = new OutlineIcons(this::getResource);
+    this.lexer = skeleton ? new IncrementalJavaLexer() : null;
+    this.skeletonOutliner = skeleton ? new SkeletonOutliner(icons) : null;
+    this.outlineDiff = outlineDiff();
+  }
+
+  /** Returns the differ for outline deltas, or null if it can't read the outlines. */
+  private static OutlineDiff outlineDiff() {
+    try {
+      OutlineDiff.checkLayout();
+      return new OutlineDiff();
+    } catch (IllegalStateException e) {
+      System.err.printf("Outline deltas are not supported: %s\n", e.getMessage());
+      return null;
+    }
   }
 
   @Override
@@ -45,6 +86,20 @@ public class JavaOutliner extends MontoService {
         request
             .getSourceMessage()
             .orElseThrow(() -> new IllegalArgumentException("No version message in request"));
+    if (skeletonOutliner != null) {
+      long start = System.nanoTime();
+      Outline outline =
+          skeletonOutliner.outline(
+              version.getContents(), lexer.lex(version.getSource(), version.getContents()));
+      sendProductMessage(
+          version.getId(),
+          version.getSource(),
+          Products.OUTLINE,
+          Languages.JAVA,
+          product(version, outline),
+          System.nanoTime() - start);
+      return;
+    }
     ProductMessage ast =
         request
             .getProductMessage(Products.AST, Languages.JAVA)
@@ -55,16 +110,16 @@ public class JavaOutliner extends MontoService {
     if (!ast.isAvailable()) {
       throw new IllegalArgumentException("Can't generate Outline with missing AST.");
     }
-    ASTNode root = GsonMonto.fromJson(ast, ASTNode.class);
+    FlatAst root = FlatAst.fromMessage(ast, productBus);
 
-    OutlineTrimmer trimmer = new OutlineTrimmer(version);
+    Outline outline;
     try {
-      root.accept(trimmer);
+      outline = outline(root, version.getContents());
     } catch (Exception e) {
       throw new RuntimeException(
           String.format(
-              "error while trimming the following AST:\n%s\nLength: %d",
-              root.toString(), version.getContents().length()),
+              "error while trimming the AST of %s\nLength: %d",
+              version.getSource(), version.getContents().length()),
           e);
     }
     long end = System.nanoTime();
@@ -74,31 +129,97 @@ public class JavaOutliner extends MontoService {
         version.getSource(),
         Products.OUTLINE,
         Languages.JAVA,
-        GsonMonto.toJsonTree(trimmer.getConverted()),
+        product(version, outline),
         ast.getTime() + end - start);
   }
 
+  @SuppressWarnings("rawtypes")
+  @Override
+  public void onConfigurationMessage(Configuration message) throws Exception {
+    for (Setting setting : message.getSettings()) {
+      if (setting.getOptionId().equals(OPTION_ID_OUTLINE_DELTAS)) {
+        boolean enabled = (boolean) setting.getValue();
+        if (enabled && outlineDiff == null) {
+          System.err.printf(
+              "Ignored %s, outline deltas are not supported, see the log of the start\n",
+              OPTION_ID_OUTLINE_DELTAS);
+          enabled = false;
+        }
+        sendOutlineDeltas = enabled;
+      }
+    }
+  }
+
+  /** Outlines the AST of {@code document}. */
+  Outline outline(FlatAst ast, String document) {
+    OutlineTrimmer trimmer = new OutlineTrimmer(ast, document);
+    trimmer.visit(ast.getRoot());
+    return trimmer.getConverted();
+  }
+
+  /**
+   * Converts an outline to the product. With outline deltas, only the difference to the outline
+   * last sent for the source is sent. The first outline of a source is sent in full, as is the
+   * outline of a source whose last outline was evicted.
+   */
+  private JsonElement product(SourceMessage version, Outline outline) {
+    JsonElement json = GsonMonto.toJsonTree(outline);
+    if (!sendOutlineDeltas) {
+      emittedOutlines.remove(version.getSource());
+      return json;
+    }
+    EmittedOutline emitted = emittedOutlines.get(version.getSource());
+    OutlineDelta delta =
+        emitted == null
+            ? OutlineDelta.full(json)
+            : outlineDiff.diff(
+                emitted.id, emitted.contents, emitted.outline, version.getContents(), json);
+    emittedOutlines.put(
+        version.getSource(), new EmittedOutline(version.getId(), version.getContents(), json));
+    return GsonMonto.toJsonTree(delta);
+  }
+
+  /** Version, contents and outline last sent for a source. */
+  private static class EmittedOutline {
+    private final LongKey id;
+    private final String contents;
+    private final JsonElement outline;
+
+    EmittedOutline(LongKey id, String contents, JsonElement outline) {
+      this.id = id;
+      this.contents = contents;
+      this.outline = outline;
+    }
+
+    private long retainedSize() {
+      return 64 + 40 + 2L * contents.length() + JavaJavaCCParser.retainedSize(outline);
+    }
+  }
+
   /** Traverses the AST and removes unneeded information. */
-  private class OutlineTrimmer implements ASTNodeVisitor {
+  private class OutlineTrimmer {
 
     private Deque<Outline> converted = new ArrayDeque<>();
+    private FlatAst ast;
     private String document;
+    // Reused for the labels of all entries
+    private final StringBuilder label = new StringBuilder();
 
-    public OutlineTrimmer(SourceMessage version) {
-      this.document = version.getContents();
+    public OutlineTrimmer(FlatAst ast, String document) {
+      this.ast = ast;
+      this.document = document;
     }
 
     public Outline getConverted() {
       return converted.getFirst();
     }
 
-    @Override
-    public void visit(ASTNode node) {
-      switch (node.getName()) {
+    public void visit(int node) {
+      switch (ast.getName(node)) {
         case "CompilationUnit":
           {
-            converted.push(new Outline("compilation-unit", node, null));
-            node.getChildren().forEach(child -> child.accept(this));
+            converted.push(new Outline("compilation-unit", ast.region(node), null));
+            visitSiblings(ast.getFirstChild(node));
             // compilation unit doesn't get poped from the stack
             // to be available as a return value.
           }
@@ -106,106 +227,116 @@ public class JavaOutliner extends MontoService {
 
         case "PackageDeclaration":
           {
-            ASTNode packageIdentifier = node.getChild(0);
+            int packageIdentifier = ast.getFirstChild(node);
             addChild(
                 new Outline(
-                    extract(packageIdentifier), packageIdentifier, getResource("package.png")));
+                    extract(packageIdentifier),
+                    ast.region(packageIdentifier),
+                    icons.getPackageIcon()));
           }
           break;
 
         case "ClassDeclaration":
         case "InterfaceDeclaration":
           {
-            List<String> modifiers = new ArrayList<>();
-            for (ASTNode modifier : node.getChild(0).getChildren())
-              modifiers.add(modifier.getName());
-            ASTNode className = node.getChild(1);
-            URL classIcon = getIcon(modifiers, "class");
-            Outline klass = new Outline(extract(className), className, classIcon);
+            int modifiers = ast.getFirstChild(node);
+            int className = ast.getNextSibling(modifiers);
+            Outline klass =
+                new Outline(
+                    extract(className), ast.region(className), getIcon(modifiers, Kind.CLASS));
             addChild(klass);
             converted.push(klass);
-            for (int i = 2; i < node.getChildren().size(); i++) node.getChild(i).accept(this);
+            visitSiblings(ast.getNextSibling(className));
             converted.pop();
           }
           break;
 
         case "ConstructorDeclaration":
           {
-            List<String> modifiers = new ArrayList<>();
-            for (ASTNode modifier : node.getChild(0).getChildren())
-              modifiers.add(modifier.getName());
-
-            ASTNode constructorName = node.getChild(1);
-
-            List<FormalParameter> parameters = new ArrayList<>();
-            for (ASTNode parameter : node.getChild(2).getChildren())
-              parameters.add(new FormalParameter(parameter.getChild(1), parameter.getChild(0)));
-
-            URL constructorIcon = getIcon(modifiers, "constructor");
-            String paramterList =
-                parameters
-                    .stream()
-                    .map(p -> extract(p.getType()))
-                    .collect(Collectors.joining(", "));
-            String cname = String.format("%s(%s)", extract(constructorName), paramterList);
-            addChild(new Outline(cname, constructorName, constructorIcon));
+            int modifiers = ast.getFirstChild(node);
+            int constructorName = ast.getNextSibling(modifiers);
+            int parameters = ast.getNextSibling(constructorName);
+
+            label.setLength(0);
+            append(constructorName).append('(');
+            for (int parameter = ast.getFirstChild(parameters);
+                parameter != -1;
+                parameter = ast.getNextSibling(parameter)) {
+              if (parameter != ast.getFirstChild(parameters)) {
+                label.append(", ");
+              }
+              append(ast.getFirstChild(parameter));
+            }
+            label.append(')');
+
+            addChild(
+                new Outline(
+                    label.toString(),
+                    ast.region(constructorName),
+                    getIcon(modifiers, Kind.CONSTRUCTOR)));
           }
           break;
 
         case "FieldDeclaration":
           {
-            List<String> modifiers = new ArrayList<>();
-            for (ASTNode modifier : node.getChild(0).getChildren())
-              modifiers.add(modifier.getName());
-            ASTNode type = node.getChild(1);
-            for (int i = 2; i < node.getChildren().size(); i++) {
-              ASTNode variable = node.getChild(i);
-              if (!variable.getName().equals("VariableDeclarator")) continue;
-              URL fieldIcon = getIcon(modifiers, "field");
-              String name = String.format("%s : %s", extract(variable), extract(type));
-              addChild(new Outline(name, variable, fieldIcon));
+            int modifiers = ast.getFirstChild(node);
+            int type = ast.getNextSibling(modifiers);
+            for (int variable = ast.getNextSibling(type);
+                variable != -1;
+                variable = ast.getNextSibling(variable)) {
+              if (!ast.getName(variable).equals("VariableDeclarator")) continue;
+              label.setLength(0);
+              append(variable).append(" : ");
+              append(type);
+              addChild(
+                  new Outline(
+                      label.toString(), ast.region(variable), getIcon(modifiers, Kind.FIELD)));
             }
           }
           break;
 
         case "MethodDeclaration":
           {
-            List<String> modifiers = new ArrayList<>();
-            for (ASTNode modifier : node.getChild(0).getChildren())
-              modifiers.add(modifier.getName());
+            int modifiers = ast.getFirstChild(node);
 
-            ASTNode returnType = node.getChild(1);
+            int returnType = ast.getNextSibling(modifiers);
 
-            ASTNode methodName = node.getChild(2);
+            int methodName = ast.getNextSibling(returnType);
 
-            List<FormalParameter> parameters = new ArrayList<>();
-            for (int i = 3;
-                i < node.getChildren().size() && node.getChild(i).getName().equals("Parameter");
-                i++) {
-              ASTNode parameter = node.getChild(i);
-              parameters.add(new FormalParameter(parameter.getChild(1), parameter.getChild(0)));
+            label.setLength(0);
+            append(methodName).append('(');
+            for (int parameter = ast.getNextSibling(methodName);
+                parameter != -1 && ast.getName(parameter).equals("Parameter");
+                parameter = ast.getNextSibling(parameter)) {
+              if (parameter != ast.getNextSibling(methodName)) {
+                label.append(", ");
+              }
+              append(ast.getFirstChild(parameter));
             }
+            label.append(") : ");
+            append(returnType);
 
-            URL methodIcon = getIcon(modifiers, "method");
-            String methodParams =
-                parameters
-                    .stream()
-                    .map(p -> extract(p.getType()))
-                    .collect(Collectors.joining(", "));
-            String name =
-                String.format(
-                    "%s(%s) : %s", extract(methodName), methodParams, extract(returnType));
-            addChild(new Outline(name, methodName, methodIcon));
+            addChild(
+                new Outline(
+                    label.toString(), ast.region(methodName), getIcon(modifiers, Kind.METHOD)));
           }
 
         default:
-          node.getChildren().forEach(child -> child.accept(this));
+          visitSiblings(ast.getFirstChild(node));
+      }
+    }
+
+    private void visitSiblings(int first) {
+      for (int node = first; node != -1; node = ast.getNextSibling(node)) {
+        visit(node);
       }
     }
 
-    private Visibility visibility(List<String> modifiers) {
-      for (String modifier : modifiers) {
-        switch (modifier) {
+    private Visibility visibility(int modifiers) {
+      for (int modifier = ast.getFirstChild(modifiers);
+          modifier != -1;
+          modifier = ast.getNextSibling(modifier)) {
+        switch (ast.getName(modifier)) {
           case "public":
             return Visibility.PUBLIC;
           case "private":
@@ -217,43 +348,21 @@ public class JavaOutliner extends MontoService {
       return Visibility.DEFAULT;
     }
 
-    private URL getIcon(List<String> modifiers, String type) {
-      switch (visibility(modifiers)) {
-        case PUBLIC:
-          return getResource(type + "-public.png");
-        case PRIVATE:
-          return getResource(type + "-private.png");
-        case PROTECTED:
-          return getResource(type + "-protected.png");
-        default:
-          return getResource(type + "-default.png");
-      }
+    private URL getIcon(int modifiers, Kind kind) {
+      return icons.get(kind, visibility(modifiers));
     }
 
     private void addChild(Outline o) {
       converted.peek().addChild(o);
     }
 
-    private String extract(IRegion region) {
-      return region.extract(document);
-    }
-  }
-
-  public class FormalParameter {
-    private ASTNode identifier;
-    private ASTNode type;
-
-    public FormalParameter(ASTNode identifier2, ASTNode typ) {
-      this.identifier = identifier2;
-      this.type = typ;
-    }
-
-    public ASTNode getIdentifier() {
-      return identifier;
+    private String extract(int node) {
+      return ast.extract(node, document);
     }
 
-    public ASTNode getType() {
-      return type;
+    /** Appends the text of {@code node} to the label without copying it to a string first. */
+    private StringBuilder append(int node) {
+      return label.append(document, ast.getOffset(node), ast.getEndOffset(node));
     }
   }
 
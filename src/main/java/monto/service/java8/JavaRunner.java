@@ -1,8 +1,8 @@
 package monto.service.java8;
 
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -15,9 +15,14 @@ import monto.service.command.Commands;
 import monto.service.dependency.DynamicDependency;
 import monto.service.dependency.RegisterCommandMessageDependencies;
 import monto.service.gson.GsonMonto;
-import monto.service.java8.launching.CompileUtils;
+import monto.service.java8.launching.ClassBytesLauncher;
+import monto.service.java8.launching.CompilationCache;
 import monto.service.java8.launching.InputStreamProductThread;
+import monto.service.java8.launching.LauncherPool;
+import monto.service.java8.launching.OutputCoalescing;
+import monto.service.java8.launching.OutputQuota;
 import monto.service.java8.launching.ProcessTerminationThread;
+import monto.service.java8.launching.SessionOutput;
 import monto.service.launching.LaunchConfiguration;
 import monto.service.launching.StreamOutput;
 import monto.service.product.Products;
@@ -28,8 +33,17 @@ import monto.service.types.Languages;
 
 public class JavaRunner extends MontoService {
   private Map<Integer, ProcessTerminationThread> processThreadMap;
-
-  public JavaRunner(ZMQConfiguration zmqConfig) {
+  private final CompilationCache compilationCache;
+  private final LauncherPool launcherPool;
+  private final OutputCoalescing outputCoalescing;
+  private final OutputQuota outputQuota;
+
+  public JavaRunner(
+      ZMQConfiguration zmqConfig,
+      CompilationCache compilationCache,
+      LauncherPool launcherPool,
+      OutputCoalescing outputCoalescing,
+      OutputQuota outputQuota) {
     super(
         zmqConfig,
         JavaServices.RUNNER,
@@ -45,6 +59,10 @@ public class JavaRunner extends MontoService {
             new CommandDescription(Commands.RUN, Languages.JAVA)));
 
     processThreadMap = new HashMap<>();
+    this.compilationCache = compilationCache;
+    this.launcherPool = launcherPool;
+    this.outputCoalescing = outputCoalescing;
+    this.outputQuota = outputQuota;
   }
 
   @Override
@@ -78,34 +96,30 @@ public class JavaRunner extends MontoService {
                 + " doesn't have a logical name.\n"
                 + "JavaRunner needs that to run the class");
       } else {
-        Path compileDirectory = Files.createTempDirectory(null);
-
-        CompileUtils.compileJavaClass(
-            mainClassSourceMessage.getSource().getPhysicalName(),
-            mainClassSourceMessage.getContents(),
-            compileDirectory.toAbsolutePath().toString());
-
-        Process process =
-            Runtime.getRuntime()
-                .exec(
-                    "java " + mainClassSourceMessage.getSource().getLogicalName().get(),
-                    new String[0],
-                    compileDirectory.toFile());
-
+        // Classes are compiled in memory and sent to a launched JVM through its standard input,
+        // the working directory only isolates files the program writes
+        Map<String, byte[]> classes =
+            compilationCache.compile(
+                mainClassSourceMessage.getSource().getPhysicalName(),
+                mainClassSourceMessage.getContents(),
+                Collections.singletonList("-g"));
+        LauncherPool.Launcher launcher = launcherPool.take();
+        Process process = launcher.getProcess();
+        Path workingDirectory = launcher.getWorkingDirectory();
+        ClassBytesLauncher.writeClasses(
+            process.getOutputStream(),
+            classes,
+            mainClassSourceMessage.getSource().getLogicalName().get());
+
+        SessionOutput output =
+            new SessionOutput(
+                commandMessage.getSession(), outputQuota, getServiceId(), this::sendProductMessage);
         InputStreamProductThread stdoutThread =
             new InputStreamProductThread(
-                StreamOutput.SourceStream.OUT,
-                commandMessage.getSession(),
-                process.getInputStream(),
-                getServiceId(),
-                this::sendProductMessage);
+                StreamOutput.SourceStream.OUT, process.getInputStream(), output, outputCoalescing);
         InputStreamProductThread stderrThread =
             new InputStreamProductThread(
-                StreamOutput.SourceStream.ERR,
-                commandMessage.getSession(),
-                process.getErrorStream(),
-                getServiceId(),
-                this::sendProductMessage);
+                StreamOutput.SourceStream.ERR, process.getErrorStream(), output, outputCoalescing);
 
         stdoutThread.start();
         stderrThread.start();
@@ -116,7 +130,8 @@ public class JavaRunner extends MontoService {
                 commandMessage.getSession(),
                 stdoutThread,
                 stderrThread,
-                compileDirectory,
+                output,
+                workingDirectory,
                 getServiceId(),
                 this::sendProductMessage);
 
@@ -0,0 +1,73 @@
+package monto.service.java8;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import monto.service.ast.ASTNode;
+import monto.service.gson.GsonMonto;
+
+/**
+ * Builds the JSON of AST products while the parse tree is traversed, instead of building an {@link
+ * ASTNode} tree first and letting Gson convert it reflectively. This saves one full copy of the AST
+ * per request.
+ *
+ * <p>The JSON has the properties Gson writes for the fields of ASTNode. The parsers call {@link
+ * #checkLayout()} when they are constructed, which fails if Gson writes ASTNodes differently, so a
+ * changed ASTNode is noticed when the service starts instead of by the consumers of its ASTs.
+ */
+public final class JsonAst implements AstFactory<JsonElement> {
+  static final String NAME = "name";
+  static final String START_OFFSET = "startOffset";
+  static final String LENGTH = "length";
+  static final String CHILDREN = "children";
+
+  private static final JsonAst INSTANCE = new JsonAst();
+
+  private final Map<String, JsonPrimitive> names = new ConcurrentHashMap<>();
+
+  private JsonAst() {}
+
+  public static JsonAst factory() {
+    return INSTANCE;
+  }
+
+  /**
+   * Checks that the JSON of this factory is the one Gson writes for ASTNodes.
+   *
+   * @throws IllegalStateException if Gson writes ASTNodes differently.
+   */
+  public static void checkLayout() {
+    List<ASTNode> children = new ArrayList<>();
+    children.add(new ASTNode("leaf", 3, 4, new ArrayList<>()));
+    JsonElement expected = GsonMonto.toJsonTree(new ASTNode("node", 1, 2, children));
+    List<JsonElement> jsonChildren = new ArrayList<>();
+    jsonChildren.add(INSTANCE.node("leaf", 3, 4, new ArrayList<>()));
+    JsonElement actual = INSTANCE.node("node", 1, 2, jsonChildren);
+    if (!actual.equals(expected)) {
+      throw new IllegalStateException(
+          String.format(
+              "JSON ASTs don't match the JSON of ASTNodes, expected %s but built %s",
+              expected, actual));
+    }
+  }
+
+  @Override
+  public JsonElement node(String name, int offset, int length, List<JsonElement> children) {
+    JsonObject node = new JsonObject();
+    // Names repeat all over the tree and primitives are immutable, so they are shared
+    node.add(NAME, names.computeIfAbsent(name, JsonPrimitive::new));
+    node.add(START_OFFSET, new JsonPrimitive(offset));
+    node.add(LENGTH, new JsonPrimitive(length));
+    JsonArray array = new JsonArray();
+    for (JsonElement child : children) {
+      array.add(child);
+    }
+    node.add(CHILDREN, array);
+    return node;
+  }
+}
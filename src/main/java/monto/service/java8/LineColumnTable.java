@@ -0,0 +1,74 @@
+package monto.service.java8;
+
+import monto.service.region.Region;
+
+/**
+ * Maps the line and column numbers reported by JavaParser to regions of the original source.
+ *
+ * <p>JavaParser counts columns like JavaCC: a tab advances the column to the next multiple of
+ * {@value #TAB_SIZE}, every other character advances it by one. Lines without tabs need no
+ * conversion, which is checked once per line.
+ */
+public class LineColumnTable {
+  static final int TAB_SIZE = 8;
+
+  private static final byte UNKNOWN = 0;
+  private static final byte WITHOUT_TABS = 1;
+  private static final byte WITH_TABS = 2;
+
+  private final String contents;
+  private final int[] lineOffsets;
+  private final byte[] lineTabs;
+
+  public LineColumnTable(String contents) {
+    this.contents = contents;
+    this.lineOffsets = Region.getLineOffsets(contents);
+    this.lineTabs = new byte[lineOffsets.length];
+  }
+
+  public int[] getLineOffsets() {
+    return lineOffsets;
+  }
+
+  public Region region(int beginLine, int beginColumn, int endLine, int endColumn) {
+    return Region.fromLineNumberColumn(
+        lineOffsets,
+        beginLine,
+        charColumn(beginLine, beginColumn),
+        endLine,
+        charColumn(endLine, endColumn));
+  }
+
+  /** Converts a column reported by JavaParser to the 1-based index of the character in its line. */
+  public int charColumn(int line, int column) {
+    if (line < 1 || line > lineOffsets.length || !hasTabs(line - 1)) {
+      return column;
+    }
+    int offset = lineOffsets[line - 1];
+    int expandedColumn = 0;
+    int chars = 0;
+    while (expandedColumn < column && offset + chars < contents.length()) {
+      if (contents.charAt(offset + chars) == '\t') {
+        expandedColumn += TAB_SIZE - (expandedColumn % TAB_SIZE);
+      } else {
+        expandedColumn++;
+      }
+      chars++;
+    }
+    return chars;
+  }
+
+  private boolean hasTabs(int lineIndex) {
+    if (lineTabs[lineIndex] == UNKNOWN) {
+      int end = lineIndex + 1 < lineOffsets.length ? lineOffsets[lineIndex + 1] : contents.length();
+      lineTabs[lineIndex] = WITHOUT_TABS;
+      for (int i = lineOffsets[lineIndex]; i < end; i++) {
+        if (contents.charAt(i) == '\t') {
+          lineTabs[lineIndex] = WITH_TABS;
+          break;
+        }
+      }
+    }
+    return lineTabs[lineIndex] == WITH_TABS;
+  }
+}
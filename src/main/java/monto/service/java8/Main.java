@@ -1,9 +1,16 @@
 package monto.service.java8;
 
+import com.google.gson.JsonElement;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import monto.service.MontoService;
 import monto.service.ZMQConfiguration;
+import monto.service.java8.launching.CompilationCache;
+import monto.service.java8.launching.LauncherPool;
+import monto.service.java8.launching.OutputCoalescing;
+import monto.service.java8.launching.OutputQuota;
 import monto.service.resources.ResourceServer;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -14,6 +21,13 @@ import org.zeromq.ZContext;
 public class Main {
 
   private static ResourceServer resourceServer;
+  private static RequestWorkers requestWorkers;
+  private static DfaWarmup dfaWarmup;
+  private static SizeBoundedCache<ContentHash, JsonElement> astCache;
+  private static ProductBus productBus;
+  private static SymbolIndex symbolIndex;
+  private static CompilationCache compilationCache;
+  private static LauncherPool launcherPool;
 
   public static void main(String[] args) throws Exception {
     ZContext context = new ZContext(1);
@@ -30,6 +44,24 @@ public class Main {
                     service.stop();
                   }
                   resourceServer.stop();
+                  if (requestWorkers != null) {
+                    requestWorkers.shutdown();
+                  }
+                  if (launcherPool != null) {
+                    launcherPool.shutdown();
+                  }
+                  if (dfaWarmup != null) {
+                    dfaWarmup.save();
+                  }
+                  if (symbolIndex != null) {
+                    symbolIndex.save();
+                  }
+                  if (astCache != null) {
+                    System.out.println("JavaCC AST cache: " + astCache);
+                  }
+                  if (compilationCache != null) {
+                    System.out.println("Compilation cache: " + compilationCache);
+                  }
                 } catch (Exception e) {
                   e.printStackTrace();
                 }
@@ -42,16 +74,86 @@ public class Main {
     options
         .addOption("highlighter", false, "enable Java syntax highlighter")
         .addOption("antlrparser", false, "enable Java ANTLR parser")
+        .addOption(
+            "antlrsll",
+            false,
+            "let the ANTLR parser try fast SLL parsing first and fall back to full LL parsing")
+        .addOption(
+            "antlrcollapse", false, "collapse single child rule chains in the ANTLR parser's AST")
         .addOption("javaccparser", false, "enable JavaCC parser")
+        .addOption(
+            "astcache",
+            true,
+            "megabytes of ASTs the JavaCC parser caches for sources whose contents didn't change")
+        .addOption(
+            "flatast",
+            false,
+            "let the JavaCC parser produce ASTs of flat arrays, which the outliner and identifier"
+                + " finder read faster")
+        .addOption(
+            "productbus",
+            false,
+            "share ASTs of the JavaCC parser with the outliner and identifier finder in this"
+                + " process, so they don't decode the ASTs sent through the broker")
         .addOption("outliner", false, "enable Java outliner")
+        .addOption(
+            "skeletonoutline",
+            false,
+            "let the outliner skip method bodies and outline from tokens, without the AST")
         .addOption("identifierfinder", false, "enable Java identifier finder")
+        .addOption(
+            "symbolindex",
+            true,
+            "file to save the identifier finder's index of the project's types to, it resolves"
+                + " imports on restart")
         .addOption("codecompletioner", false, "enable Java code completioner")
+        .addOption(
+            "completions", true, "number of best ranked completions the code completioner sends")
         .addOption("runner", false, "enable Java runtime service")
+        .addOption(
+            "runnerpool",
+            true,
+            "number of JVMs the runner starts ahead of time, so programs run without waiting for"
+                + " a JVM to start")
         .addOption("debugger", false, "enable Java debugger service")
+        .addOption(
+            "outputbuffer",
+            true,
+            "kilobytes of program output the runner and debugger collect before sending it"
+                + " when -outputdelay is set, 16 by default, 0 sends the output of every read")
+        .addOption(
+            "outputdelay",
+            true,
+            "milliseconds the runner and debugger collect program output before sending it,"
+                + " for example 20, by default 0 sends the output of every read")
+        .addOption(
+            "outputquota",
+            true,
+            "megabytes of output a program run or debugged may send, the rest is truncated,"
+                + " 8 by default")
+        .addOption(
+            "outputqueue",
+            true,
+            "number of output products of a program that may wait to be sent, further output is"
+                + " truncated, 64 by default")
+        .addOption(
+            "compilecache",
+            true,
+            "megabytes of compiled classes the runner and debugger share for unchanged sources,"
+                + " 16 by default")
         .addOption("logicalnameextractor", false, "enable logical name extractor")
         .addOption("address", true, "address of services")
         .addOption("registration", true, "address of broker registration")
         .addOption("resources", true, "port for http resource server")
+        .addOption("warmup", false, "parse a bundled corpus to warm up the ANTLR DFA cache")
+        .addOption(
+            "dfasnapshot",
+            true,
+            "file to save recently parsed sources to, they warm up the ANTLR DFA cache on restart")
+        .addOption(
+            "workers",
+            true,
+            "number of threads the highlighter and ANTLR parser process requests on")
         .addOption("debug", false, "enable debugging output");
 
     CommandLineParser parser = new DefaultParser();
@@ -73,32 +175,105 @@ public class Main {
       e.printStackTrace();
     }
 
+    requestWorkers =
+        cmd.hasOption("workers")
+            ? new RequestWorkers(Integer.parseInt(cmd.getOptionValue("workers")))
+            : RequestWorkers.inline();
+
+    dfaWarmup =
+        new DfaWarmup(
+            cmd.hasOption("dfasnapshot") ? Paths.get(cmd.getOptionValue("dfasnapshot")) : null);
+    if (cmd.hasOption("warmup") || cmd.hasOption("dfasnapshot")) {
+      try {
+        dfaWarmup.warmUp();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+
+    if (cmd.hasOption("productbus")) {
+      productBus = new ProductBus();
+    }
+
     if (cmd.hasOption("highlighter")) {
-      services.add(new JavaHighlighter(zmqConfig));
+      services.add(new JavaHighlighter(zmqConfig, requestWorkers, dfaWarmup));
     }
     if (cmd.hasOption("javaccparser")) {
-      services.add(new JavaJavaCCParser(zmqConfig));
+      if (cmd.hasOption("astcache")) {
+        astCache =
+            new SizeBoundedCache<>(
+                Long.parseLong(cmd.getOptionValue("astcache")) * 1024 * 1024,
+                JavaJavaCCParser::retainedSize);
+      }
+      services.add(new JavaJavaCCParser(zmqConfig, astCache, cmd.hasOption("flatast"), productBus));
     }
     if (cmd.hasOption("antlrparser")) {
-      services.add(new ANTLRJavaParser(zmqConfig));
+      services.add(
+          new ANTLRJavaParser(
+              zmqConfig,
+              requestWorkers,
+              dfaWarmup,
+              cmd.hasOption("antlrsll"),
+              cmd.hasOption("antlrcollapse")));
     }
     if (cmd.hasOption("outliner")) {
-      services.add(new JavaOutliner(zmqConfig));
+      services.add(new JavaOutliner(zmqConfig, productBus, cmd.hasOption("skeletonoutline")));
     }
     if (cmd.hasOption("identifierfinder")) {
-      services.add(new JavaIdentifierFinder(zmqConfig));
+      symbolIndex =
+          new SymbolIndex(
+              cmd.hasOption("symbolindex") ? Paths.get(cmd.getOptionValue("symbolindex")) : null);
+      try {
+        symbolIndex.load();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+      services.add(new JavaIdentifierFinder(zmqConfig, productBus, symbolIndex));
     }
     if (cmd.hasOption("codecompletioner")) {
-      services.add(new JavaCodeCompletioner(zmqConfig));
+      services.add(
+          new JavaCodeCompletioner(
+              zmqConfig,
+              cmd.hasOption("completions")
+                  ? Integer.parseInt(cmd.getOptionValue("completions"))
+                  : 50));
     }
     if (cmd.hasOption("logicalnameextractor")) {
       services.add(new JavaLogicalNameExtractor(zmqConfig));
     }
+    OutputCoalescing outputCoalescing =
+        new OutputCoalescing(
+            (cmd.hasOption("outputbuffer")
+                    ? Integer.parseInt(cmd.getOptionValue("outputbuffer"))
+                    : 16)
+                * 1024,
+            cmd.hasOption("outputdelay") ? Long.parseLong(cmd.getOptionValue("outputdelay")) : 0);
+    OutputQuota outputQuota =
+        new OutputQuota(
+            (cmd.hasOption("outputquota") ? Long.parseLong(cmd.getOptionValue("outputquota")) : 8)
+                * 1024
+                * 1024,
+            cmd.hasOption("outputqueue")
+                ? Integer.parseInt(cmd.getOptionValue("outputqueue"))
+                : 64);
+    if (cmd.hasOption("runner") || cmd.hasOption("debugger")) {
+      compilationCache =
+          new CompilationCache(
+              (cmd.hasOption("compilecache")
+                      ? Long.parseLong(cmd.getOptionValue("compilecache"))
+                      : 16)
+                  * 1024
+                  * 1024);
+    }
     if (cmd.hasOption("runner")) {
-      services.add(new JavaRunner(zmqConfig));
+      launcherPool =
+          new LauncherPool(
+              cmd.hasOption("runnerpool") ? Integer.parseInt(cmd.getOptionValue("runnerpool")) : 0);
+      services.add(
+          new JavaRunner(zmqConfig, compilationCache, launcherPool, outputCoalescing, outputQuota));
     }
     if (cmd.hasOption("debugger")) {
-      services.add(new JavaDebugger(zmqConfig));
+      services.add(new JavaDebugger(zmqConfig, compilationCache, outputCoalescing, outputQuota));
     }
     if (cmd.hasOption("debug")) {
       services.forEach(MontoService::enableDebugging);
@@ -0,0 +1,112 @@
+package monto.service.java8;
+
+import com.google.gson.JsonElement;
+import java.util.List;
+import monto.service.types.LongKey;
+
+/**
+ * Content of the OUTLINE product when outline deltas are enabled in {@link JavaOutliner}.
+ *
+ * <p>An {@code UNCHANGED} delta means the outline equals the one of version {@code base}. A {@code
+ * FULL} delta contains the whole {@code outline} and has no base.
+ *
+ * <p>A {@code REPLACEMENTS} delta is applied to the outline of version {@code base} in two steps.
+ * First the regions are moved: the edit replaced the characters from {@code changeStart} to {@code
+ * changeEnd} of the base version and moved everything behind them by {@code shift}, so a region
+ * starting at or behind {@code changeEnd} moves by {@code shift}, otherwise a region starting at or
+ * before {@code changeStart} and ending at or behind {@code changeEnd} grows by {@code shift}. Then
+ * every replacement replaces the subtree at its path, a list of child indices starting at the root,
+ * with its outline.
+ */
+public class OutlineDelta {
+  public enum Kind {
+    UNCHANGED,
+    REPLACEMENTS,
+    FULL
+  }
+
+  private final Kind kind;
+  private final LongKey base;
+  private final int changeStart;
+  private final int changeEnd;
+  private final int shift;
+  private final List<Replacement> replacements;
+  private final JsonElement outline;
+
+  private OutlineDelta(
+      Kind kind,
+      LongKey base,
+      int changeStart,
+      int changeEnd,
+      int shift,
+      List<Replacement> replacements,
+      JsonElement outline) {
+    this.kind = kind;
+    this.base = base;
+    this.changeStart = changeStart;
+    this.changeEnd = changeEnd;
+    this.shift = shift;
+    this.replacements = replacements;
+    this.outline = outline;
+  }
+
+  public static OutlineDelta unchanged(LongKey base) {
+    return new OutlineDelta(Kind.UNCHANGED, base, 0, 0, 0, null, null);
+  }
+
+  public static OutlineDelta replacements(
+      LongKey base, int changeStart, int changeEnd, int shift, List<Replacement> replacements) {
+    return new OutlineDelta(
+        Kind.REPLACEMENTS, base, changeStart, changeEnd, shift, replacements, null);
+  }
+
+  public static OutlineDelta full(JsonElement outline) {
+    return new OutlineDelta(Kind.FULL, null, 0, 0, 0, null, outline);
+  }
+
+  public Kind getKind() {
+    return kind;
+  }
+
+  public LongKey getBase() {
+    return base;
+  }
+
+  public int getChangeStart() {
+    return changeStart;
+  }
+
+  public int getChangeEnd() {
+    return changeEnd;
+  }
+
+  public int getShift() {
+    return shift;
+  }
+
+  public List<Replacement> getReplacements() {
+    return replacements;
+  }
+
+  public JsonElement getOutline() {
+    return outline;
+  }
+
+  public static class Replacement {
+    private final int[] path;
+    private final JsonElement outline;
+
+    public Replacement(int[] path, JsonElement outline) {
+      this.path = path;
+      this.outline = outline;
+    }
+
+    public int[] getPath() {
+      return path;
+    }
+
+    public JsonElement getOutline() {
+      return outline;
+    }
+  }
+}
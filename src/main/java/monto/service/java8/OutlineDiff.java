@@ -0,0 +1,191 @@
+package monto.service.java8;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import monto.service.gson.GsonMonto;
+import monto.service.outline.Outline;
+import monto.service.region.Region;
+import monto.service.types.LongKey;
+
+/**
+ * Computes {@link OutlineDelta}s between the JSON of two outlines of a source.
+ *
+ * <p>Most edits happen inside of method bodies, they don't change the outline but move the regions
+ * behind them. So before two nodes are compared, the region of the old node is moved like the
+ * client moves it, see {@link OutlineDelta}. The region and the children of an outline are the
+ * properties Gson writes for the fields of Outline, {@link #checkLayout()} tells whether they are
+ * there.
+ */
+public class OutlineDiff {
+  private static final int MAX_REPLACEMENTS = 32;
+
+  private static final String OFFSET = "startOffset";
+  private static final String LENGTH = "length";
+  private static final String CHILDREN = "children";
+
+  /**
+   * Checks that Gson writes the region and the children of outlines as the properties this differ
+   * reads.
+   *
+   * @throws IllegalStateException if Gson writes outlines differently.
+   */
+  public static void checkLayout() {
+    Outline sample = new Outline("sample", new Region(7, 9), null);
+    sample.addChild(new Outline("child", new Region(11, 13), null));
+    JsonElement json = GsonMonto.toJsonTree(sample);
+    if (!json.isJsonObject()
+        || !new JsonPrimitive(7).equals(json.getAsJsonObject().get(OFFSET))
+        || !new JsonPrimitive(9).equals(json.getAsJsonObject().get(LENGTH))
+        || !json.getAsJsonObject().has(CHILDREN)
+        || !json.getAsJsonObject().get(CHILDREN).isJsonArray()
+        || json.getAsJsonObject().getAsJsonArray(CHILDREN).size() != 1) {
+      throw new IllegalStateException(
+          String.format(
+              "Outlines are not written with the properties %s, %s and %s: %s",
+              OFFSET, LENGTH, CHILDREN, json));
+    }
+  }
+
+  /**
+   * Compares the outline of a new version with the one sent for version {@code base}.
+   *
+   * @param oldContents contents of the base version.
+   * @param contents contents of the new version.
+   */
+  public OutlineDelta diff(
+      LongKey base,
+      String oldContents,
+      JsonElement oldOutline,
+      String contents,
+      JsonElement outline) {
+    if (oldOutline.equals(outline)) {
+      return OutlineDelta.unchanged(base);
+    }
+
+    int maxCommon = Math.min(oldContents.length(), contents.length());
+    int prefix = 0;
+    while (prefix < maxCommon && oldContents.charAt(prefix) == contents.charAt(prefix)) {
+      prefix++;
+    }
+    int suffix = 0;
+    while (suffix < maxCommon - prefix
+        && oldContents.charAt(oldContents.length() - 1 - suffix)
+            == contents.charAt(contents.length() - 1 - suffix)) {
+      suffix++;
+    }
+    Edit edit =
+        new Edit(prefix, oldContents.length() - suffix, contents.length() - oldContents.length());
+
+    List<OutlineDelta.Replacement> replacements = new ArrayList<>();
+    if (!diff(edit, oldOutline, outline, new int[0], replacements)
+        || replacements.size() > MAX_REPLACEMENTS) {
+      return OutlineDelta.full(outline);
+    }
+    return OutlineDelta.replacements(base, edit.start, edit.end, edit.shift, replacements);
+  }
+
+  /**
+   * Adds the replacements that turn {@code oldNode} into {@code node}. Returns false if the node
+   * itself has to be replaced and it is the root.
+   */
+  private boolean diff(
+      Edit edit,
+      JsonElement oldNode,
+      JsonElement node,
+      int[] path,
+      List<OutlineDelta.Replacement> replacements) {
+    if (!sameNode(edit, oldNode, node)) {
+      if (path.length == 0) {
+        return false;
+      }
+      replacements.add(new OutlineDelta.Replacement(path, node));
+      return true;
+    }
+    JsonArray oldChildren = children(oldNode);
+    JsonArray children = children(node);
+    for (int i = 0; i < children.size(); i++) {
+      int[] childPath = Arrays.copyOf(path, path.length + 1);
+      childPath[path.length] = i;
+      diff(edit, oldChildren.get(i), children.get(i), childPath, replacements);
+    }
+    return true;
+  }
+
+  /**
+   * Whether two nodes are equal apart from their children, after moving the old region, and have
+   * the same number of children.
+   */
+  private boolean sameNode(Edit edit, JsonElement oldNode, JsonElement node) {
+    if (!oldNode.isJsonObject() || !node.isJsonObject()) {
+      return oldNode.equals(node);
+    }
+    JsonObject oldObject = oldNode.getAsJsonObject();
+    JsonObject object = node.getAsJsonObject();
+    if (oldObject.entrySet().size() != object.entrySet().size()) {
+      return false;
+    }
+    for (Map.Entry<String, JsonElement> entry : object.entrySet()) {
+      String key = entry.getKey();
+      if (!oldObject.has(key)) {
+        return false;
+      }
+      if (!key.equals(OFFSET)
+          && !key.equals(LENGTH)
+          && !key.equals(CHILDREN)
+          && !entry.getValue().equals(oldObject.get(key))) {
+        return false;
+      }
+    }
+    if (children(oldNode).size() != children(node).size()) {
+      return false;
+    }
+    if (!object.has(OFFSET) || !object.has(LENGTH)) {
+      return true;
+    }
+    int oldOffset = oldObject.get(OFFSET).getAsInt();
+    int oldEnd = oldOffset + oldObject.get(LENGTH).getAsInt();
+    int offset = edit.moveStart(oldOffset);
+    int end = edit.moveEnd(oldOffset, oldEnd);
+    return offset == object.get(OFFSET).getAsInt() && end - offset == object.get(LENGTH).getAsInt();
+  }
+
+  private static JsonArray children(JsonElement node) {
+    if (node.isJsonObject() && node.getAsJsonObject().has(CHILDREN)) {
+      JsonElement children = node.getAsJsonObject().get(CHILDREN);
+      if (children.isJsonArray()) {
+        return children.getAsJsonArray();
+      }
+    }
+    return new JsonArray();
+  }
+
+  /** The characters from {@code start} to {@code end} were replaced, moving the rest by shift. */
+  private static class Edit {
+    private final int start;
+    private final int end;
+    private final int shift;
+
+    Edit(int start, int end, int shift) {
+      this.start = start;
+      this.end = end;
+      this.shift = shift;
+    }
+
+    int moveStart(int regionStart) {
+      return regionStart >= end ? regionStart + shift : regionStart;
+    }
+
+    int moveEnd(int regionStart, int regionEnd) {
+      if (regionStart >= end || (regionStart <= start && regionEnd >= end)) {
+        return regionEnd + shift;
+      }
+      return regionEnd;
+    }
+  }
+}
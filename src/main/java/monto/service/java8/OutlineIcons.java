@@ -0,0 +1,60 @@
+package monto.service.java8;
+
+import java.net.URL;
+import java.util.function.Function;
+import monto.service.java8.JavaOutliner.Visibility;
+
+/**
+ * The icons of outline entries. The URLs of all icons are looked up once, when the outliner is
+ * constructed, instead of for every entry of every outline.
+ */
+public class OutlineIcons {
+
+  public enum Kind {
+    CLASS("class"),
+    CONSTRUCTOR("constructor"),
+    FIELD("field"),
+    METHOD("method");
+
+    private final String fileName;
+
+    Kind(String fileName) {
+      this.fileName = fileName;
+    }
+  }
+
+  private final URL packageIcon;
+  private final URL[][] icons = new URL[Kind.values().length][Visibility.values().length];
+
+  /** @param resources finds the URLs of icons by their file name. */
+  public OutlineIcons(Function<String, URL> resources) {
+    packageIcon = resources.apply("package.png");
+    for (Kind kind : Kind.values()) {
+      for (Visibility visibility : Visibility.values()) {
+        icons[kind.ordinal()][visibility.ordinal()] =
+            resources.apply(kind.fileName + "-" + fileName(visibility) + ".png");
+      }
+    }
+  }
+
+  private static String fileName(Visibility visibility) {
+    switch (visibility) {
+      case PUBLIC:
+        return "public";
+      case PRIVATE:
+        return "private";
+      case PROTECTED:
+        return "protected";
+      default:
+        return "default";
+    }
+  }
+
+  public URL getPackageIcon() {
+    return packageIcon;
+  }
+
+  public URL get(Kind kind, Visibility visibility) {
+    return icons[kind.ordinal()][visibility.ordinal()];
+  }
+}
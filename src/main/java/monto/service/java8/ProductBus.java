@@ -0,0 +1,60 @@
+package monto.service.java8;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import monto.service.types.LongKey;
+import monto.service.types.Source;
+
+/**
+ * Shares products between services running in the same process. The producer sends its product
+ * through the broker as usual and additionally publishes the live product object on the bus, by
+ * source and version. A consumer in the same process looks the product up on the bus first and only
+ * decodes the JSON of the product message if it isn't there. This saves deserializing the product
+ * again, without breaking consumers in other processes.
+ *
+ * <p>Only the latest few products of every source are kept, older versions are requested rarely and
+ * are decoded from their product messages.
+ */
+public class ProductBus {
+  private static final int VERSIONS_PER_SOURCE = 4;
+
+  private final Map<Source, Deque<Version>> versions = new HashMap<>();
+
+  /** Shares {@code product} of version {@code id} of {@code source}. */
+  public synchronized void publish(Source source, LongKey id, Object product) {
+    Deque<Version> sourceVersions = versions.computeIfAbsent(source, s -> new ArrayDeque<>());
+    sourceVersions.removeIf(version -> version.id.equals(id));
+    sourceVersions.addLast(new Version(id, product));
+    while (sourceVersions.size() > VERSIONS_PER_SOURCE) {
+      sourceVersions.removeFirst();
+    }
+  }
+
+  /**
+   * Returns the product of version {@code id} of {@code source}, or null if it isn't shared (any
+   * more) or of another type.
+   */
+  public synchronized <T> T get(Source source, LongKey id, Class<T> type) {
+    Deque<Version> sourceVersions = versions.get(source);
+    if (sourceVersions != null) {
+      for (Version version : sourceVersions) {
+        if (version.id.equals(id) && type.isInstance(version.product)) {
+          return type.cast(version.product);
+        }
+      }
+    }
+    return null;
+  }
+
+  private static final class Version {
+    private final LongKey id;
+    private final Object product;
+
+    Version(LongKey id, Object product) {
+      this.id = id;
+      this.product = product;
+    }
+  }
+}
@@ -0,0 +1,69 @@
+package monto.service.java8;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import monto.service.types.Source;
+
+/**
+ * Runs requests of services on a fixed number of worker threads. Requests for the same source
+ * always run on the same worker, so they are processed one after another and in the order they
+ * arrived, while requests for different sources can run in parallel.
+ *
+ * <p>With zero workers, requests run directly on the calling thread and their exceptions reach the
+ * caller. On a worker, the exception of a failed request is passed to a handler of the service
+ * instead, which reports the failure to the client.
+ */
+public class RequestWorkers {
+  private final ExecutorService[] workers;
+
+  public RequestWorkers(int threads) {
+    AtomicInteger threadNumber = new AtomicInteger();
+    workers = new ExecutorService[threads];
+    for (int i = 0; i < threads; i++) {
+      workers[i] =
+          Executors.newSingleThreadExecutor(
+              runnable -> {
+                Thread thread =
+                    new Thread(runnable, "request-worker-" + threadNumber.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+              });
+    }
+  }
+
+  public static RequestWorkers inline() {
+    return new RequestWorkers(0);
+  }
+
+  public void execute(Source source, RequestTask task, Consumer<Exception> onFailure)
+      throws Exception {
+    if (workers.length == 0) {
+      task.run();
+      return;
+    }
+    ExecutorService worker = workers[Math.floorMod(source.hashCode(), workers.length)];
+    worker.execute(
+        () -> {
+          try {
+            task.run();
+          } catch (Exception e) {
+            System.err.printf("Request for %s failed: %s\n", source, e.getMessage());
+            e.printStackTrace();
+            onFailure.accept(e);
+          }
+        });
+  }
+
+  public void shutdown() {
+    for (ExecutorService worker : workers) {
+      worker.shutdownNow();
+    }
+  }
+
+  @FunctionalInterface
+  public interface RequestTask {
+    void run() throws Exception;
+  }
+}
@@ -0,0 +1,102 @@
+package monto.service.java8;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.ToLongFunction;
+
+/**
+ * A least recently used cache whose entries are evicted once their total weight exceeds a limit.
+ * The weight of an entry is an estimate of the memory its value retains, in bytes.
+ *
+ * <p>All methods are thread safe. Hits, misses and evictions are counted to help sizing the cache.
+ */
+public class SizeBoundedCache<K, V> {
+  private final long maxWeight;
+  private final ToLongFunction<V> weigher;
+  private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long weight = 0;
+  private long hits = 0;
+  private long misses = 0;
+  private long evictions = 0;
+
+  public SizeBoundedCache(long maxWeight, ToLongFunction<V> weigher) {
+    this.maxWeight = maxWeight;
+    this.weigher = weigher;
+  }
+
+  /** Returns the cached value for {@code key} or null if there is none. */
+  public synchronized V get(K key) {
+    Entry<V> entry = entries.get(key);
+    if (entry == null) {
+      misses++;
+      return null;
+    }
+    hits++;
+    return entry.value;
+  }
+
+  /**
+   * Caches {@code value} and evicts the least recently used entries until the total weight fits the
+   * limit again. Values that exceed the limit on their own are not cached.
+   */
+  public synchronized void put(K key, V value) {
+    long valueWeight = weigher.applyAsLong(value);
+    Entry<V> previous =
+        valueWeight <= maxWeight
+            ? entries.put(key, new Entry<>(value, valueWeight))
+            : entries.remove(key);
+    if (valueWeight <= maxWeight) {
+      weight += valueWeight;
+    }
+    if (previous != null) {
+      weight -= previous.weight;
+    }
+    Iterator<Entry<V>> eldest = entries.values().iterator();
+    while (weight > maxWeight) {
+      weight -= eldest.next().weight;
+      eldest.remove();
+      evictions++;
+    }
+  }
+
+  public synchronized void remove(K key) {
+    Entry<V> entry = entries.remove(key);
+    if (entry != null) {
+      weight -= entry.weight;
+    }
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  public synchronized long getEvictions() {
+    return evictions;
+  }
+
+  /** Estimated number of bytes retained by all cached values. */
+  public synchronized long getWeight() {
+    return weight;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format(
+        "%d entries, %d of %d KB, %d hits, %d misses, %d evictions",
+        entries.size(), weight / 1024, maxWeight / 1024, hits, misses, evictions);
+  }
+
+  private static class Entry<V> {
+    private final V value;
+    private final long weight;
+
+    Entry(V value, long weight) {
+      this.value = value;
+      this.weight = weight;
+    }
+  }
+}
@@ -0,0 +1,549 @@
+package monto.service.java8;
+
+import monto.service.java8.IncrementalJavaLexer.LexedSource;
+import monto.service.java8.JavaOutliner.Visibility;
+import monto.service.java8.OutlineIcons.Kind;
+import monto.service.java8.antlr.Java8Lexer;
+import monto.service.outline.Outline;
+import monto.service.region.Region;
+import org.antlr.v4.runtime.Token;
+
+/**
+ * Builds the outline of a Java source directly from its tokens. Only declarations are parsed,
+ * bodies of methods, constructors and initializers as well as field initializers are skipped by
+ * matching their brackets, so the time spent on a source hardly depends on the size of its method
+ * bodies.
+ *
+ * <p>The outline has the same structure as the one {@link JavaOutliner} builds from the AST of the
+ * JavaCC parser, with two exceptions. Members of anonymous and local classes inside of method
+ * bodies and initializers are not part of it, and labels of methods and parameters are built from
+ * the declared types even if annotations precede them.
+ *
+ * <p>Syntax errors are skipped up to the next semicolon or block, the outline of the rest of the
+ * source is built as usual.
+ */
+public class SkeletonOutliner {
+  private final OutlineIcons icons;
+
+  public SkeletonOutliner(OutlineIcons icons) {
+    this.icons = icons;
+  }
+
+  public Outline outline(String contents, LexedSource tokens) {
+    return new Parse(contents, tokens).compilationUnit();
+  }
+
+  /** The state of outlining one source, {@code pos} is the index of the current token. */
+  private class Parse {
+    private final String document;
+    private final LexedSource tokens;
+    private int pos = 0;
+    // Reused for the labels of all entries
+    private final StringBuilder label = new StringBuilder();
+
+    Parse(String document, LexedSource tokens) {
+      this.document = document;
+      this.tokens = tokens;
+    }
+
+    Outline compilationUnit() {
+      Outline unit =
+          new Outline(
+              "compilation-unit",
+              tokens.size() == 0 ? new Region(0, 0) : region(0, tokens.size() - 1),
+              null);
+
+      skipAnnotations();
+      if (at(Java8Lexer.PACKAGE)) {
+        pos++;
+        int first = pos;
+        skipQualifiedName();
+        if (pos > first) {
+          unit.addChild(
+              new Outline(text(first, pos - 1), region(first, pos - 1), icons.getPackageIcon()));
+        }
+        skipPast(Java8Lexer.SEMI);
+      } else {
+        // The annotations belong to the first type declaration
+        pos = 0;
+      }
+      while (at(Java8Lexer.IMPORT)) {
+        skipPast(Java8Lexer.SEMI);
+      }
+
+      while (!at(Token.EOF)) {
+        int before = pos;
+        member(unit, false);
+        if (pos == before) {
+          pos++;
+        }
+      }
+      return unit;
+    }
+
+    /** Outlines the members of a type body up to, but not including, the closing brace. */
+    private void members(Outline container, boolean annotationBody) {
+      while (!at(Java8Lexer.RBRACE) && !at(Token.EOF)) {
+        int before = pos;
+        member(container, annotationBody);
+        if (pos == before) {
+          pos++;
+        }
+      }
+    }
+
+    private void member(Outline container, boolean annotationBody) {
+      Visibility visibility = Visibility.DEFAULT;
+      modifiers:
+      while (true) {
+        switch (type(pos)) {
+          case Java8Lexer.PUBLIC:
+            visibility = Visibility.PUBLIC;
+            pos++;
+            break;
+          case Java8Lexer.PRIVATE:
+            visibility = Visibility.PRIVATE;
+            pos++;
+            break;
+          case Java8Lexer.PROTECTED:
+            visibility = Visibility.PROTECTED;
+            pos++;
+            break;
+          case Java8Lexer.ABSTRACT:
+          case Java8Lexer.DEFAULT:
+          case Java8Lexer.FINAL:
+          case Java8Lexer.NATIVE:
+          case Java8Lexer.STATIC:
+          case Java8Lexer.STRICTFP:
+          case Java8Lexer.SYNCHRONIZED:
+          case Java8Lexer.TRANSIENT:
+          case Java8Lexer.VOLATILE:
+            pos++;
+            break;
+          case Java8Lexer.AT:
+            if (type(pos + 1) == Java8Lexer.INTERFACE) {
+              break modifiers;
+            }
+            skipAnnotation();
+            break;
+          default:
+            break modifiers;
+        }
+      }
+
+      switch (type(pos)) {
+        case Java8Lexer.SEMI:
+          pos++;
+          return;
+        case Java8Lexer.LBRACE:
+          // Static or instance initializer
+          skipBalanced();
+          return;
+        case Java8Lexer.CLASS:
+        case Java8Lexer.INTERFACE:
+          typeDeclaration(container, visibility);
+          return;
+        case Java8Lexer.ENUM:
+          enumDeclaration(container);
+          return;
+        case Java8Lexer.AT:
+          // Like enums, annotation types have no entry of their own, their members are added to
+          // the enclosing type
+          pos += 3;
+          body(container, true);
+          return;
+        case Java8Lexer.RBRACE:
+        case Token.EOF:
+          return;
+        default:
+          break;
+      }
+
+      if (at(Java8Lexer.LT)) {
+        skipTypeArguments();
+      }
+      if (at(Java8Lexer.Identifier) && type(pos + 1) == Java8Lexer.LPAREN) {
+        constructor(container, visibility);
+        return;
+      }
+      int typeStart = pos;
+      if (!skipType() || !at(Java8Lexer.Identifier)) {
+        recover();
+        return;
+      }
+      int typeEnd = pos - 1;
+      int name = pos++;
+      if (!at(Java8Lexer.LPAREN)) {
+        fields(container, visibility, typeStart, typeEnd, name);
+      } else if (annotationBody) {
+        // Annotation type elements are not part of the outline
+        skipPast(Java8Lexer.SEMI);
+      } else {
+        method(container, visibility, typeStart, typeEnd, name);
+      }
+    }
+
+    private void typeDeclaration(Outline container, Visibility visibility) {
+      pos++;
+      if (!at(Java8Lexer.Identifier)) {
+        recover();
+        return;
+      }
+      int name = pos++;
+      Outline klass =
+          new Outline(text(name, name), region(name, name), icons.get(Kind.CLASS, visibility));
+      container.addChild(klass);
+      body(klass, false);
+    }
+
+    private void enumDeclaration(Outline container) {
+      // Enums have no entry of their own, the members of the enum and of the bodies of its
+      // constants are added to the enclosing type
+      pos += 2;
+      skipTo(Java8Lexer.LBRACE);
+      if (!at(Java8Lexer.LBRACE)) {
+        return;
+      }
+      pos++;
+      while (true) {
+        skipAnnotations();
+        if (!at(Java8Lexer.Identifier)) {
+          break;
+        }
+        pos++;
+        if (at(Java8Lexer.LPAREN)) {
+          skipBalanced();
+        }
+        if (at(Java8Lexer.LBRACE)) {
+          pos++;
+          members(container, false);
+          skipPast(Java8Lexer.RBRACE);
+        }
+        if (!at(Java8Lexer.COMMA)) {
+          break;
+        }
+        pos++;
+      }
+      if (at(Java8Lexer.SEMI)) {
+        pos++;
+      }
+      members(container, false);
+      skipPast(Java8Lexer.RBRACE);
+    }
+
+    /** Skips to the body of a type declaration and outlines its members into {@code outline}. */
+    private void body(Outline outline, boolean annotationBody) {
+      skipTo(Java8Lexer.LBRACE);
+      if (at(Java8Lexer.LBRACE)) {
+        pos++;
+        members(outline, annotationBody);
+        skipPast(Java8Lexer.RBRACE);
+      }
+    }
+
+    private void constructor(Outline container, Visibility visibility) {
+      int name = pos++;
+      label.setLength(0);
+      append(name, name).append('(');
+      parameters();
+      label.append(')');
+      container.addChild(
+          new Outline(
+              label.toString(), region(name, name), icons.get(Kind.CONSTRUCTOR, visibility)));
+      skipBody();
+    }
+
+    private void method(
+        Outline container, Visibility visibility, int typeStart, int typeEnd, int name) {
+      label.setLength(0);
+      append(name, name).append('(');
+      parameters();
+      label.append(") : ");
+      append(typeStart, typeEnd);
+      container.addChild(
+          new Outline(label.toString(), region(name, name), icons.get(Kind.METHOD, visibility)));
+      skipBody();
+    }
+
+    private void fields(
+        Outline container, Visibility visibility, int typeStart, int typeEnd, int name) {
+      int declarator = name;
+      while (true) {
+        // The entry of a field covers its name and initializer
+        skipDimensions();
+        if (at(Java8Lexer.ASSIGN)) {
+          pos++;
+          skipInitializer();
+        }
+        int end = pos - 1;
+        label.setLength(0);
+        append(declarator, end).append(" : ");
+        append(typeStart, typeEnd);
+        container.addChild(
+            new Outline(
+                label.toString(), region(declarator, end), icons.get(Kind.FIELD, visibility)));
+        if (!at(Java8Lexer.COMMA) || type(pos + 1) != Java8Lexer.Identifier) {
+          break;
+        }
+        pos++;
+        declarator = pos++;
+      }
+      skipPast(Java8Lexer.SEMI);
+    }
+
+    /** Appends the types of the parameters in parentheses at the current token to the label. */
+    private void parameters() {
+      if (!at(Java8Lexer.LPAREN)) {
+        return;
+      }
+      int open = pos;
+      skipBalanced();
+      int after = pos;
+      int close = after - 1;
+      pos = open + 1;
+      boolean first = true;
+      while (pos < close) {
+        while (at(Java8Lexer.FINAL) || at(Java8Lexer.AT)) {
+          if (at(Java8Lexer.AT)) {
+            skipAnnotation();
+          } else {
+            pos++;
+          }
+        }
+        int typeStart = pos;
+        if (!skipType() || pos > close) {
+          break;
+        }
+        if (!first) {
+          label.append(", ");
+        }
+        first = false;
+        append(typeStart, pos - 1);
+        // Skip the ellipsis, name and dimensions up to the next parameter
+        while (pos < close && !at(Java8Lexer.COMMA)) {
+          pos++;
+        }
+        pos++;
+      }
+      pos = after;
+    }
+
+    /** Skips the throws clause and the body of a method or constructor. */
+    private void skipBody() {
+      while (!at(Java8Lexer.LBRACE)
+          && !at(Java8Lexer.SEMI)
+          && !at(Java8Lexer.RBRACE)
+          && !at(Token.EOF)) {
+        pos++;
+      }
+      if (at(Java8Lexer.LBRACE)) {
+        skipBalanced();
+      } else if (at(Java8Lexer.SEMI)) {
+        pos++;
+      }
+    }
+
+    /** Skips a type, returns false if there is none at the current token. */
+    private boolean skipType() {
+      skipAnnotations();
+      switch (type(pos)) {
+        case Java8Lexer.BOOLEAN:
+        case Java8Lexer.BYTE:
+        case Java8Lexer.CHAR:
+        case Java8Lexer.SHORT:
+        case Java8Lexer.INT:
+        case Java8Lexer.LONG:
+        case Java8Lexer.FLOAT:
+        case Java8Lexer.DOUBLE:
+        case Java8Lexer.VOID:
+          pos++;
+          break;
+        case Java8Lexer.Identifier:
+          pos++;
+          if (at(Java8Lexer.LT)) {
+            skipTypeArguments();
+          }
+          while (at(Java8Lexer.DOT)
+              && (type(pos + 1) == Java8Lexer.Identifier || type(pos + 1) == Java8Lexer.AT)) {
+            pos++;
+            skipAnnotations();
+            if (at(Java8Lexer.Identifier)) {
+              pos++;
+            }
+            if (at(Java8Lexer.LT)) {
+              skipTypeArguments();
+            }
+          }
+          break;
+        default:
+          return false;
+      }
+      skipDimensions();
+      return true;
+    }
+
+    private void skipTypeArguments() {
+      int depth = 0;
+      do {
+        if (at(Java8Lexer.LT)) {
+          depth++;
+        } else if (at(Java8Lexer.GT)) {
+          depth--;
+        } else if (at(Java8Lexer.LBRACE)
+            || at(Java8Lexer.SEMI)
+            || at(Java8Lexer.RBRACE)
+            || at(Token.EOF)) {
+          return;
+        }
+        pos++;
+      } while (depth > 0);
+    }
+
+    private void skipDimensions() {
+      while (at(Java8Lexer.LBRACK) && type(pos + 1) == Java8Lexer.RBRACK) {
+        pos += 2;
+      }
+    }
+
+    /**
+     * Skips an initializer up to the comma or semicolon that ends it. Commas between type
+     * arguments, as in {@code new HashMap<String, Integer>()}, don't end it.
+     */
+    private void skipInitializer() {
+      while (!(at(Java8Lexer.COMMA) && declaratorsFollow(pos + 1))
+          && !at(Java8Lexer.SEMI)
+          && !at(Java8Lexer.RBRACE)
+          && !at(Token.EOF)) {
+        if (at(Java8Lexer.LPAREN) || at(Java8Lexer.LBRACE) || at(Java8Lexer.LBRACK)) {
+          skipBalanced();
+        } else {
+          pos++;
+        }
+      }
+    }
+
+    /**
+     * Returns whether the tokens from {@code i} on are further declarators of a field, names that
+     * are separated by commas and followed by an initializer or the semicolon. Type arguments are
+     * followed by a {@code >} instead.
+     */
+    private boolean declaratorsFollow(int i) {
+      while (type(i) == Java8Lexer.Identifier) {
+        i++;
+        while (type(i) == Java8Lexer.LBRACK && type(i + 1) == Java8Lexer.RBRACK) {
+          i += 2;
+        }
+        if (type(i) != Java8Lexer.COMMA) {
+          return type(i) == Java8Lexer.ASSIGN || type(i) == Java8Lexer.SEMI;
+        }
+        i++;
+      }
+      return false;
+    }
+
+    private void skipAnnotations() {
+      while (at(Java8Lexer.AT) && type(pos + 1) != Java8Lexer.INTERFACE) {
+        skipAnnotation();
+      }
+    }
+
+    private void skipAnnotation() {
+      pos++;
+      skipQualifiedName();
+      if (at(Java8Lexer.LPAREN)) {
+        skipBalanced();
+      }
+    }
+
+    private void skipQualifiedName() {
+      if (!at(Java8Lexer.Identifier)) {
+        return;
+      }
+      pos++;
+      while (at(Java8Lexer.DOT) && type(pos + 1) == Java8Lexer.Identifier) {
+        pos += 2;
+      }
+    }
+
+    /** Skips a bracketed range starting at the current token, including nested brackets. */
+    private void skipBalanced() {
+      int depth = 0;
+      do {
+        switch (type(pos)) {
+          case Java8Lexer.LPAREN:
+          case Java8Lexer.LBRACE:
+          case Java8Lexer.LBRACK:
+            depth++;
+            break;
+          case Java8Lexer.RPAREN:
+          case Java8Lexer.RBRACE:
+          case Java8Lexer.RBRACK:
+            depth--;
+            break;
+          case Token.EOF:
+            return;
+          default:
+            break;
+        }
+        pos++;
+      } while (depth > 0);
+    }
+
+    /** Skips a declaration that couldn't be parsed. */
+    private void recover() {
+      while (!at(Java8Lexer.SEMI) && !at(Java8Lexer.RBRACE) && !at(Token.EOF)) {
+        if (at(Java8Lexer.LBRACE)) {
+          skipBalanced();
+          return;
+        } else if (at(Java8Lexer.LPAREN) || at(Java8Lexer.LBRACK)) {
+          skipBalanced();
+        } else {
+          pos++;
+        }
+      }
+      if (at(Java8Lexer.SEMI)) {
+        pos++;
+      }
+    }
+
+    /** Skips to the next {@code type} token of the current level. */
+    private void skipTo(int type) {
+      while (!at(type) && !at(Java8Lexer.RBRACE) && !at(Token.EOF)) {
+        if (at(Java8Lexer.LPAREN) || at(Java8Lexer.LBRACE) || at(Java8Lexer.LBRACK)) {
+          skipBalanced();
+        } else {
+          pos++;
+        }
+      }
+    }
+
+    private void skipPast(int type) {
+      skipTo(type);
+      if (at(type)) {
+        pos++;
+      }
+    }
+
+    private boolean at(int type) {
+      return type(pos) == type;
+    }
+
+    private int type(int index) {
+      return index < tokens.size() ? tokens.getType(index) : Token.EOF;
+    }
+
+    private Region region(int first, int last) {
+      int start = tokens.getStartIndex(first);
+      return new Region(start, tokens.getStopIndex(last) + 1 - start);
+    }
+
+    private String text(int first, int last) {
+      return document.substring(tokens.getStartIndex(first), tokens.getStopIndex(last) + 1);
+    }
+
+    /** Appends the text of the tokens to the label without copying it to a string first. */
+    private StringBuilder append(int first, int last) {
+      return label.append(document, tokens.getStartIndex(first), tokens.getStopIndex(last) + 1);
+    }
+  }
+}
@@ -0,0 +1,244 @@
+package monto.service.java8;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import monto.service.identifier.Identifier;
+
+/**
+ * Maps the fully qualified names of the top level types of a project to the identifiers declared in
+ * their files. The identifier finder updates the index whenever it finds the identifiers of a
+ * source, and resolves imports with it instead of requesting the identifiers of every imported file
+ * through the broker.
+ *
+ * <p>The index can be saved to a file, which is memory mapped when it is loaded again. Types loaded
+ * from the file are decoded only when they are looked up for the first time, so the index of a
+ * large project is available right after a restart.
+ *
+ * <p>Every type belongs to the source that declared it last. When a source is indexed again, its
+ * types that it no longer declares are removed, so renamed, deleted and moved types don't stay
+ * resolvable.
+ *
+ * <p>The file holds its format version and the number of types followed by the types, each as its
+ * name, the name of its source, the number of identifiers and the identifiers as pairs of name and
+ * type. Numbers are big-endian 32-bit integers, strings are their length in bytes followed by their
+ * UTF-8 bytes.
+ */
+public class SymbolIndex {
+  private static final int FORMAT_VERSION = 2;
+
+  private final Path file;
+  private final Map<String, List<Identifier>> types = new ConcurrentHashMap<>();
+  private final Map<String, Set<String>> typesByPackage = new ConcurrentHashMap<>();
+  private final Map<String, String> sourcesByType = new ConcurrentHashMap<>();
+  // Only accessed while synchronized on the index
+  private final Map<String, Set<String>> typesBySource = new HashMap<>();
+  // Positions of the types of the loaded file that weren't looked up yet
+  private final Map<String, Integer> unreadTypes = new ConcurrentHashMap<>();
+  private MappedByteBuffer mapped;
+
+  /** @param file file to load the index from and save it to, or null to keep it in memory only. */
+  public SymbolIndex(Path file) {
+    this.file = file;
+  }
+
+  /** Maps the saved index, if its file exists. */
+  public synchronized void load() throws IOException {
+    if (file == null || !Files.exists(file)) {
+      return;
+    }
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    ByteBuffer buffer = mapped.duplicate();
+    if (buffer.remaining() < 4 || buffer.getInt() != FORMAT_VERSION) {
+      System.err.printf("Ignored symbol index of an older format in %s\n", file);
+      mapped = null;
+      return;
+    }
+    int count = buffer.getInt();
+    for (int i = 0; i < count; i++) {
+      String type = readString(buffer);
+      String source = readString(buffer);
+      unreadTypes.put(type, buffer.position());
+      addToPackage(type);
+      sourcesByType.put(type, source);
+      typesBySource.computeIfAbsent(source, s -> new HashSet<>()).add(type);
+      int identifiers = buffer.getInt();
+      for (int j = 0; j < 2 * identifiers; j++) {
+        buffer.position(buffer.position() + 4 + buffer.getInt(buffer.position()));
+      }
+    }
+    System.out.printf("Loaded symbol index of %d types from %s\n", count, file);
+  }
+
+  /** Writes the index to its file. */
+  public void save() throws IOException {
+    if (file == null) {
+      return;
+    }
+    Map<String, List<Identifier>> snapshot = new HashMap<>();
+    Map<String, String> sources = new HashMap<>();
+    synchronized (this) {
+      for (String type : new ArrayList<>(unreadTypes.keySet())) {
+        get(type);
+      }
+      snapshot.putAll(types);
+      sources.putAll(sourcesByType);
+    }
+
+    List<byte[]> strings = new ArrayList<>();
+    int size = 8;
+    for (Map.Entry<String, List<Identifier>> type : snapshot.entrySet()) {
+      size += 12 + add(strings, type.getKey()) + add(strings, sources.get(type.getKey()));
+      for (Identifier identifier : type.getValue()) {
+        size += 8 + add(strings, identifier.getIdentifier()) + add(strings, identifier.getType());
+      }
+    }
+    // The loaded file may still be mapped, so the index is written next to it and moved over it
+    Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+    try (FileChannel channel =
+        FileChannel.open(
+            temporary,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE)) {
+      MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+      int next = 0;
+      out.putInt(FORMAT_VERSION);
+      out.putInt(snapshot.size());
+      for (Map.Entry<String, List<Identifier>> type : snapshot.entrySet()) {
+        writeString(out, strings.get(next++));
+        writeString(out, strings.get(next++));
+        out.putInt(type.getValue().size());
+        for (int i = 0; i < type.getValue().size(); i++) {
+          writeString(out, strings.get(next++));
+          writeString(out, strings.get(next++));
+        }
+      }
+      out.force();
+    }
+    Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * Replaces the identifiers of the types declared in a source, and removes the types the source
+   * declared before but no longer does.
+   *
+   * @param source the name of the source.
+   * @param packageName the package of the source, or the empty string for the default package.
+   * @param typeNames the simple names of the top level types declared in the source.
+   */
+  public synchronized void update(
+      String source, String packageName, Collection<String> typeNames, List<Identifier> members) {
+    Set<String> declared = new HashSet<>();
+    for (String typeName : typeNames) {
+      declared.add(packageName.isEmpty() ? typeName : packageName + "." + typeName);
+    }
+    Set<String> previous = typesBySource.put(source, declared);
+    if (previous != null) {
+      for (String type : previous) {
+        // A type that moved to another source belongs to that one now
+        if (!declared.contains(type) && source.equals(sourcesByType.get(type))) {
+          remove(type);
+        }
+      }
+    }
+    List<Identifier> identifiers = Collections.unmodifiableList(new ArrayList<>(members));
+    for (String type : declared) {
+      String previousSource = sourcesByType.put(type, source);
+      if (previousSource != null && !previousSource.equals(source)) {
+        Set<String> previousTypes = typesBySource.get(previousSource);
+        if (previousTypes != null) {
+          previousTypes.remove(type);
+        }
+      }
+      types.put(type, identifiers);
+      unreadTypes.remove(type);
+      addToPackage(type);
+    }
+  }
+
+  /** Returns the identifiers of a type, or null if the type isn't indexed. */
+  public List<Identifier> get(String type) {
+    List<Identifier> identifiers = types.get(type);
+    if (identifiers != null || !unreadTypes.containsKey(type)) {
+      return identifiers;
+    }
+    // Decoded while synchronized, so a concurrent update or removal of the type wins
+    synchronized (this) {
+      Integer position = unreadTypes.remove(type);
+      if (position == null) {
+        return types.get(type);
+      }
+      ByteBuffer buffer = mapped.duplicate();
+      buffer.position(position);
+      int count = buffer.getInt();
+      identifiers = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        identifiers.add(new Identifier(readString(buffer), readString(buffer)));
+      }
+      identifiers = Collections.unmodifiableList(identifiers);
+      types.put(type, identifiers);
+      return identifiers;
+    }
+  }
+
+  /** Returns the fully qualified names of the indexed types of a package. */
+  public Set<String> getTypes(String packageName) {
+    Set<String> packageTypes = typesByPackage.get(packageName);
+    return packageTypes != null ? packageTypes : Collections.emptySet();
+  }
+
+  private void remove(String type) {
+    types.remove(type);
+    unreadTypes.remove(type);
+    sourcesByType.remove(type);
+    Set<String> packageTypes = typesByPackage.get(packageOf(type));
+    if (packageTypes != null) {
+      packageTypes.remove(type);
+    }
+  }
+
+  private static String packageOf(String type) {
+    int dot = type.lastIndexOf('.');
+    return dot == -1 ? "" : type.substring(0, dot);
+  }
+
+  private void addToPackage(String type) {
+    typesByPackage.computeIfAbsent(packageOf(type), p -> ConcurrentHashMap.newKeySet()).add(type);
+  }
+
+  private static int add(List<byte[]> strings, String string) {
+    byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+    strings.add(bytes);
+    return bytes.length;
+  }
+
+  private static void writeString(ByteBuffer buffer, byte[] bytes) {
+    buffer.putInt(bytes.length);
+    buffer.put(bytes);
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getInt()];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,64 @@
+package monto.service.java8;
+
+import java.util.List;
+import monto.service.highlighting.Token;
+import monto.service.types.LongKey;
+
+/**
+ * Content of the TOKENS product when token deltas are enabled in {@link JavaHighlighter}.
+ *
+ * <p>A delta replaces {@code removed} tokens starting at index {@code start} of the tokens of
+ * version {@code base} with {@code tokens} and moves the offsets of all tokens behind them by
+ * {@code shift}. A snapshot contains all tokens of the version and has no base.
+ */
+public class TokenDelta {
+  private final boolean snapshot;
+  private final LongKey base;
+  private final int start;
+  private final int removed;
+  private final int shift;
+  private final List<Token> tokens;
+
+  private TokenDelta(
+      boolean snapshot, LongKey base, int start, int removed, int shift, List<Token> tokens) {
+    this.snapshot = snapshot;
+    this.base = base;
+    this.start = start;
+    this.removed = removed;
+    this.shift = shift;
+    this.tokens = tokens;
+  }
+
+  public static TokenDelta snapshot(List<Token> tokens) {
+    return new TokenDelta(true, null, 0, 0, 0, tokens);
+  }
+
+  public static TokenDelta delta(
+      LongKey base, int start, int removed, int shift, List<Token> tokens) {
+    return new TokenDelta(false, base, start, removed, shift, tokens);
+  }
+
+  public boolean isSnapshot() {
+    return snapshot;
+  }
+
+  public LongKey getBase() {
+    return base;
+  }
+
+  public int getStart() {
+    return start;
+  }
+
+  public int getRemoved() {
+    return removed;
+  }
+
+  public int getShift() {
+    return shift;
+  }
+
+  public List<Token> getTokens() {
+    return tokens;
+  }
+}
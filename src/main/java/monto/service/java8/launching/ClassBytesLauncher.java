@@ -0,0 +1,89 @@
+package monto.service.java8.launching;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Main class of the JVMs the runner launches. It reads compiled classes from its standard input,
+ * defines them in a class loader of its own and runs the main method of the main class. The classes
+ * never touch the disk.
+ *
+ * <p>The input is the number of classes, each class as its binary name and the length and bytes of
+ * its class file, and the binary name of the main class, as written by {@link #writeClasses}.
+ * Everything after that is left on the standard input for the program.
+ */
+public class ClassBytesLauncher {
+
+  public static void main(String[] args) throws Throwable {
+    // DataInputStream doesn't buffer, so it reads no further than the classes
+    DataInputStream in = new DataInputStream(System.in);
+    Map<String, byte[]> classes = new HashMap<>();
+    int count = in.readInt();
+    for (int i = 0; i < count; i++) {
+      String name = in.readUTF();
+      byte[] bytes = new byte[in.readInt()];
+      in.readFully(bytes);
+      classes.put(name, bytes);
+    }
+    String mainClass = in.readUTF();
+
+    ClassLoader loader = new ByteArrayClassLoader(classes);
+    Thread.currentThread().setContextClassLoader(loader);
+    Method main = loader.loadClass(mainClass).getMethod("main", String[].class);
+    if (!Modifier.isStatic(main.getModifiers())) {
+      System.err.printf(
+          "Error: Main method is not static in class %s, please define the main method as:\n"
+              + "   public static void main(String[] args)\n",
+          mainClass);
+      System.exit(1);
+    }
+    // The main class of a program may be package-private, which the java launcher allows
+    main.setAccessible(true);
+    try {
+      main.invoke(null, (Object) new String[0]);
+    } catch (InvocationTargetException e) {
+      // Let the program's exception terminate the main thread, as if it was launched directly
+      throw e.getCause();
+    }
+  }
+
+  /** Writes classes and the name of the main class in the format {@link #main} reads. */
+  public static void writeClasses(OutputStream out, Map<String, byte[]> classes, String mainClass)
+      throws IOException {
+    DataOutputStream data = new DataOutputStream(out);
+    data.writeInt(classes.size());
+    for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+      data.writeUTF(entry.getKey());
+      data.writeInt(entry.getValue().length);
+      data.write(entry.getValue());
+    }
+    data.writeUTF(mainClass);
+    data.flush();
+  }
+
+  private static class ByteArrayClassLoader extends ClassLoader {
+    private final Map<String, byte[]> classes;
+
+    ByteArrayClassLoader(Map<String, byte[]> classes) {
+      // The program sees the platform classes only, as if it was on the class path alone
+      super(ClassBytesLauncher.class.getClassLoader().getParent());
+      this.classes = classes;
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+      byte[] bytes = classes.get(name);
+      if (bytes == null) {
+        throw new ClassNotFoundException(name);
+      }
+      return defineClass(name, bytes, 0, bytes.length);
+    }
+  }
+}
@@ -0,0 +1,86 @@
+package monto.service.java8.launching;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import monto.service.java8.ContentHash;
+import monto.service.java8.SizeBoundedCache;
+
+/**
+ * Caches the classes compiled by the {@link InMemoryCompiler}, keyed by the physical name and
+ * contents of the source and the compiler options. Running or debugging an unchanged program again
+ * skips the compiler. The runner and the debugger share one cache.
+ *
+ * <p>Only successful compilations are cached, so the diagnostics of a failing source are printed on
+ * every attempt.
+ */
+public class CompilationCache {
+  // Object header, array header and map entry of a class
+  private static final long CLASS_OVERHEAD = 128;
+
+  private final SizeBoundedCache<Key, Map<String, byte[]>> cache;
+
+  /** @param maxBytes the total size of the class files to cache. */
+  public CompilationCache(long maxBytes) {
+    cache = new SizeBoundedCache<>(maxBytes, CompilationCache::retainedSize);
+  }
+
+  /** Returns the classes of a source, by binary class name, compiling it if they aren't cached. */
+  public Map<String, byte[]> compile(
+      String javaPhysicalFileName, String code, List<String> options) {
+    Key key = new Key(javaPhysicalFileName, ContentHash.of(code), options);
+    Map<String, byte[]> classes = cache.get(key);
+    if (classes == null) {
+      classes =
+          Collections.unmodifiableMap(
+              InMemoryCompiler.getInstance().compile(javaPhysicalFileName, code, options));
+      // The compiler returns no classes for a source that doesn't compile
+      if (!classes.isEmpty()) {
+        cache.put(key, classes);
+      }
+    }
+    return classes;
+  }
+
+  private static long retainedSize(Map<String, byte[]> classes) {
+    long size = 0;
+    for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+      size += CLASS_OVERHEAD + 2 * entry.getKey().length() + entry.getValue().length;
+    }
+    return size;
+  }
+
+  @Override
+  public String toString() {
+    return cache.toString();
+  }
+
+  private static final class Key {
+    private final String physicalName;
+    private final ContentHash contents;
+    private final List<String> options;
+
+    Key(String physicalName, ContentHash contents, List<String> options) {
+      this.physicalName = physicalName;
+      this.contents = contents;
+      this.options = new ArrayList<>(options);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) other;
+      return physicalName.equals(key.physicalName)
+          && contents.equals(key.contents)
+          && options.equals(key.options);
+    }
+
+    @Override
+    public int hashCode() {
+      return (physicalName.hashCode() * 31 + contents.hashCode()) * 31 + options.hashCode();
+    }
+  }
+}
@@ -1,20 +1,16 @@
 package monto.service.java8.launching;
 
 import java.io.IOException;
-import java.net.URI;
+import java.net.URISyntaxException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Arrays;
-import java.util.Collections;
-import javax.tools.Diagnostic;
-import javax.tools.DiagnosticCollector;
-import javax.tools.JavaCompiler;
-import javax.tools.JavaFileObject;
-import javax.tools.SimpleJavaFileObject;
-import javax.tools.ToolProvider;
+import java.util.List;
+import java.util.Map;
 
 public class CompileUtils {
   public static void removeDirectoryRecursively(Path directory) throws IOException {
@@ -40,47 +36,35 @@ public class CompileUtils {
     Files.createDirectory(directory);
   }
 
-  public static void compileJavaClass(
-      String javaPhysicalFileName, String code, String outputDirectory) throws IOException {
-    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
-    DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
-
-    JavaFileObject file = new JavaSourceFromString(javaPhysicalFileName, code);
-
-    Iterable<? extends JavaFileObject> compilationUnits = Collections.singletonList(file);
-    JavaCompiler.CompilationTask task =
-        compiler.getTask(
-            null,
-            null,
-            diagnostics,
-            Arrays.asList("-g", "-d", outputDirectory),
-            null,
-            compilationUnits);
-
-    boolean success = task.call();
-    for (Diagnostic diagnostic : diagnostics.getDiagnostics()) {
-      System.out.println(diagnostic.getCode());
-      System.out.println(diagnostic.getKind());
-      System.out.println(diagnostic.getPosition());
-      System.out.println(diagnostic.getStartPosition());
-      System.out.println(diagnostic.getEndPosition());
-      System.out.println(diagnostic.getSource());
-      System.out.println(diagnostic.getMessage(null));
+  /** Writes class files by binary class name to the package directories below a directory. */
+  public static void writeClasses(Map<String, byte[]> classes, Path outputDirectory)
+      throws IOException {
+    for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+      Path classFile = outputDirectory.resolve(entry.getKey().replace('.', '/') + ".class");
+      Files.createDirectories(classFile.getParent());
+      Files.write(classFile, entry.getValue());
     }
-    System.out.printf("Compile successful: %s\n", success);
   }
 
-  private static class JavaSourceFromString extends SimpleJavaFileObject {
-    final String code;
-
-    JavaSourceFromString(String physicalName, String code) {
-      super(URI.create("string:///" + physicalName), Kind.SOURCE);
-      this.code = code;
-    }
-
-    @Override
-    public CharSequence getCharContent(boolean ignoreEncodingErrors) {
-      return code;
+  /**
+   * Returns the command that launches a JVM running {@link ClassBytesLauncher}, which reads the
+   * classes to run from its standard input.
+   */
+  public static List<String> classBytesLauncherCommand() {
+    String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+    String classPath;
+    try {
+      classPath =
+          Paths.get(
+                  ClassBytesLauncher.class
+                      .getProtectionDomain()
+                      .getCodeSource()
+                      .getLocation()
+                      .toURI())
+              .toString();
+    } catch (URISyntaxException e) {
+      throw new IllegalStateException("Can't find the class path of the launcher", e);
     }
+    return Arrays.asList(java, "-cp", classPath, ClassBytesLauncher.class.getName());
   }
 }
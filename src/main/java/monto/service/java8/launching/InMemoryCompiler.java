@@ -0,0 +1,120 @@
+package monto.service.java8.launching;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * Compiles sources to class files in memory. The system compiler and its standard file manager are
+ * created once and reused for all compilations, so the index of the platform classes the file
+ * manager builds on its first use is kept as well. Compilations are serialized, because the file
+ * manager is not thread safe.
+ */
+public class InMemoryCompiler {
+  private static final InMemoryCompiler INSTANCE = new InMemoryCompiler();
+
+  private final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+  private final StandardJavaFileManager standardFileManager =
+      compiler.getStandardFileManager(null, null, null);
+
+  public static InMemoryCompiler getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Compiles a source and returns the bytes of its classes by binary class name. If the source
+   * doesn't compile, the diagnostics are printed and no classes are returned, even though javac
+   * generates the classes it could compile before the error.
+   */
+  public synchronized Map<String, byte[]> compile(
+      String javaPhysicalFileName, String code, List<String> options) {
+    DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+    ClassOutput classOutput = new ClassOutput(standardFileManager);
+
+    JavaCompiler.CompilationTask task =
+        compiler.getTask(
+            null,
+            classOutput,
+            diagnostics,
+            options,
+            null,
+            Collections.singletonList(new JavaSourceFromString(javaPhysicalFileName, code)));
+
+    boolean success = task.call();
+    for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+      System.out.println(diagnostic.getCode());
+      System.out.println(diagnostic.getKind());
+      System.out.println(diagnostic.getPosition());
+      System.out.println(diagnostic.getStartPosition());
+      System.out.println(diagnostic.getEndPosition());
+      System.out.println(diagnostic.getSource());
+      System.out.println(diagnostic.getMessage(null));
+    }
+    System.out.printf("Compile successful: %s\n", success);
+    return success ? classOutput.getClasses() : Collections.emptyMap();
+  }
+
+  static class JavaSourceFromString extends SimpleJavaFileObject {
+    final String code;
+
+    JavaSourceFromString(String physicalName, String code) {
+      super(URI.create("string:///" + physicalName), Kind.SOURCE);
+      this.code = code;
+    }
+
+    @Override
+    public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+      return code;
+    }
+  }
+
+  /** Keeps the class files of one compilation in byte arrays instead of writing them to disk. */
+  private static class ClassOutput extends ForwardingJavaFileManager<JavaFileManager> {
+    private final Map<String, ByteArrayOutputStream> classes = new LinkedHashMap<>();
+
+    ClassOutput(JavaFileManager fileManager) {
+      super(fileManager);
+    }
+
+    @Override
+    public JavaFileObject getJavaFileForOutput(
+        Location location, String className, JavaFileObject.Kind kind, FileObject sibling)
+        throws IOException {
+      if (kind != JavaFileObject.Kind.CLASS) {
+        return super.getJavaFileForOutput(location, className, kind, sibling);
+      }
+      return new SimpleJavaFileObject(
+          URI.create("bytes:///" + className.replace('.', '/') + kind.extension), kind) {
+        @Override
+        public OutputStream openOutputStream() {
+          ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+          classes.put(className, bytes);
+          return bytes;
+        }
+      };
+    }
+
+    Map<String, byte[]> getClasses() {
+      Map<String, byte[]> result = new LinkedHashMap<>();
+      for (Map.Entry<String, ByteArrayOutputStream> entry : classes.entrySet()) {
+        result.put(entry.getKey(), entry.getValue().toByteArray());
+      }
+      return result;
+    }
+  }
+}
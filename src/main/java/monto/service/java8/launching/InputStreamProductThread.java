@@ -3,70 +3,153 @@ package monto.service.java8.launching;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
-import java.nio.charset.Charset;
-import java.util.function.Consumer;
-import monto.service.gson.GsonMonto;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import monto.service.launching.StreamOutput;
-import monto.service.product.ProductMessage;
-import monto.service.product.Products;
-import monto.service.types.Languages;
-import monto.service.types.LongKey;
-import monto.service.types.ServiceId;
-import monto.service.types.Source;
-import org.apache.commons.lang3.StringEscapeUtils;
 
+/**
+ * Reads the output of a launched program and hands it to the {@link SessionOutput} of its session,
+ * which sends it as STREAM_OUTPUT products. Without {@link OutputCoalescing}, the output of every
+ * read is handed over right away. With it, output is collected, so a program printing in a loop
+ * produces a few large products instead of one per read. The output is decoded as UTF-8, characters
+ * split between two reads are decoded once both parts are read.
+ */
 public class InputStreamProductThread extends Thread {
+  // Hands over collected output once its delay is over, shared by the streams of all sessions
+  private static final ScheduledExecutorService FLUSHER =
+      Executors.newSingleThreadScheduledExecutor(
+          runnable -> {
+            Thread thread = new Thread(runnable, "output-flusher");
+            thread.setDaemon(true);
+            return thread;
+          });
+
   private final StreamOutput.SourceStream sourceStream;
-  private final int session;
   private final InputStream inputStream;
-  private final ServiceId sourceServiceId;
-  private final Consumer<ProductMessage> onProductMessage;
+  private final SessionOutput output;
+  private final OutputCoalescing coalescing;
+
+  private final CharsetDecoder decoder =
+      StandardCharsets.UTF_8
+          .newDecoder()
+          .onMalformedInput(CodingErrorAction.REPLACE)
+          .onUnmappableCharacter(CodingErrorAction.REPLACE);
+  // The collected output is shared with the flusher and guarded by this thread object
+  private final StringBuilder pending = new StringBuilder();
+  private int pendingBytes = 0;
+  // Counts the batches of collected output, so a flush scheduled for an earlier one is ignored
+  private long batch = 0;
+  private boolean flushScheduled = false;
+  private long products = 0;
+  private long totalBytes = 0;
 
   public InputStreamProductThread(
       StreamOutput.SourceStream sourceStream,
-      int session,
       InputStream inputStream,
-      ServiceId sourceServiceId,
-      Consumer<ProductMessage> onProductMessage) {
+      SessionOutput output,
+      OutputCoalescing coalescing) {
     this.sourceStream = sourceStream;
-    this.session = session;
     this.inputStream = inputStream;
-    this.sourceServiceId = sourceServiceId;
-    this.onProductMessage = onProductMessage;
+    this.output = output;
+    this.coalescing = coalescing;
   }
 
   @Override
   public void run() {
+    ByteBuffer bytes =
+        ByteBuffer.allocate(
+            coalescing.isEnabled() ? Math.max(8192, coalescing.getMaxBytes()) : 8192);
+    CharBuffer chars = CharBuffer.allocate(bytes.capacity());
+    boolean eof = false;
     try {
-      byte[] bytes = new byte[100];
-      int read = 0;
-
-      while (read != -1) {
-        read = inputStream.read(bytes);
-        if (read > 0) {
-          String data = new String(bytes, 0, read, Charset.forName("UTF-8"));
-          // TODO test with sync block on service object, sothat sendProduct() must not be synced, because performance
-          onProductMessage.accept(
-              new ProductMessage(
-                  new LongKey(-1),
-                  new Source(String.format("session:%s", session)),
-                  sourceServiceId,
-                  Products.STREAM_OUTPUT,
-                  Languages.JAVA,
-                  GsonMonto.toJsonTree(new StreamOutput(sourceStream, data)),
-                  0));
-          log(System.out, "read some data: " + StringEscapeUtils.escapeJava(data));
-        }
+      int read;
+      while ((read = read(bytes)) != -1) {
+        totalBytes += read;
+        collect(bytes, chars, read);
       }
-      log(System.out, "reached EOF");
+      eof = true;
     } catch (IOException e) {
       log(System.err, "encountered " + e.getClass().getName() + ": " + e.getMessage());
       e.printStackTrace();
+    } finally {
+      // Output read before the stream ended or failed is sent in any case
+      synchronized (this) {
+        decode(bytes, chars, true);
+        decoder.flush(chars);
+        chars.flip();
+        pending.append(chars);
+        send();
+      }
+    }
+    if (eof) {
+      log(
+          System.out,
+          String.format("reached EOF after %d bytes in %d products", totalBytes, products));
     }
     log(System.out, "is terminating");
   }
 
+  /**
+   * Adds the read bytes to the collected output and hands it over if coalescing is off or enough
+   * output is collected. Otherwise the output is handed over once the delay of the first of it is
+   * over.
+   */
+  private synchronized void collect(ByteBuffer bytes, CharBuffer chars, int read) {
+    decode(bytes, chars, false);
+    pendingBytes += read;
+    if (!coalescing.isEnabled() || pendingBytes >= coalescing.getMaxBytes()) {
+      send();
+    } else if (!flushScheduled) {
+      long collected = batch;
+      FLUSHER.schedule(
+          () -> flush(collected), coalescing.getMaxDelayMillis(), TimeUnit.MILLISECONDS);
+      flushScheduled = true;
+    }
+  }
+
+  private synchronized void flush(long collected) {
+    if (collected == batch) {
+      send();
+    }
+  }
+
+  private int read(ByteBuffer bytes) throws IOException {
+    int read = inputStream.read(bytes.array(), bytes.position(), bytes.remaining());
+    if (read > 0) {
+      bytes.position(bytes.position() + read);
+    }
+    return read;
+  }
+
+  /** Decodes the read bytes into the pending output, but the bytes of an incomplete character. */
+  private void decode(ByteBuffer bytes, CharBuffer chars, boolean endOfInput) {
+    bytes.flip();
+    decoder.decode(bytes, chars, endOfInput);
+    bytes.compact();
+    chars.flip();
+    pending.append(chars);
+    chars.clear();
+  }
+
+  private void send() {
+    if (pending.length() > 0) {
+      output.offer(sourceStream, pending.toString(), pendingBytes);
+      products++;
+      pending.setLength(0);
+    }
+    batch++;
+    pendingBytes = 0;
+    flushScheduled = false;
+  }
+
   private void log(PrintStream stream, String message) {
-    stream.printf("%s (%s, %s) %s\n", getClass().getSimpleName(), sourceStream, session, message);
+    stream.printf(
+        "%s (%s, %s) %s\n", getClass().getSimpleName(), sourceStream, output.getSession(), message);
   }
 }
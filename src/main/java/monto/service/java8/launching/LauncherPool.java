@@ -0,0 +1,117 @@
+package monto.service.java8.launching;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Starts JVMs running the {@link ClassBytesLauncher} ahead of time. A started launcher waits on its
+ * standard input for the classes to run, so a run only has to send them instead of waiting for a
+ * JVM to start up. Every launcher runs one program and is discarded afterwards, a new one is
+ * started in the background to replace it.
+ *
+ * <p>A pool of size 0 starts every launcher on demand.
+ */
+public class LauncherPool {
+  private final int size;
+  private final BlockingQueue<Launcher> idle = new LinkedBlockingQueue<>();
+  private final ExecutorService starter =
+      Executors.newSingleThreadExecutor(
+          runnable -> {
+            Thread thread = new Thread(runnable, "launcher-pool");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  public LauncherPool(int size) {
+    this.size = size;
+    for (int i = 0; i < size; i++) {
+      starter.execute(this::startIdle);
+    }
+  }
+
+  /**
+   * Returns an idle launcher, or starts one if none is idle. A new idle launcher is started in the
+   * background in its place, and in place of every idle launcher that died.
+   */
+  public Launcher take() throws IOException {
+    Launcher launcher;
+    while ((launcher = idle.poll()) != null && !launcher.process.isAlive()) {
+      launcher.discard();
+      replace();
+    }
+    replace();
+    return launcher != null ? launcher : start();
+  }
+
+  private void replace() {
+    if (size > 0) {
+      starter.execute(this::startIdle);
+    }
+  }
+
+  /** Stops all idle launchers. */
+  public void shutdown() {
+    starter.shutdownNow();
+    List<Launcher> launchers = new ArrayList<>();
+    idle.drainTo(launchers);
+    for (Launcher launcher : launchers) {
+      launcher.process.destroy();
+      launcher.discard();
+    }
+  }
+
+  private void startIdle() {
+    if (idle.size() >= size) {
+      return;
+    }
+    try {
+      idle.add(start());
+    } catch (IOException e) {
+      System.err.println("Couldn't start an idle launcher: " + e.getMessage());
+    }
+  }
+
+  private static Launcher start() throws IOException {
+    Path workingDirectory = Files.createTempDirectory(null);
+    Process process =
+        new ProcessBuilder(CompileUtils.classBytesLauncherCommand())
+            .directory(workingDirectory.toFile())
+            .start();
+    return new Launcher(process, workingDirectory);
+  }
+
+  /** A JVM waiting for the classes to run, in a working directory of its own. */
+  public static class Launcher {
+    private final Process process;
+    private final Path workingDirectory;
+
+    Launcher(Process process, Path workingDirectory) {
+      this.process = process;
+      this.workingDirectory = workingDirectory;
+    }
+
+    public Process getProcess() {
+      return process;
+    }
+
+    public Path getWorkingDirectory() {
+      return workingDirectory;
+    }
+
+    private void discard() {
+      try {
+        CompileUtils.removeDirectoryRecursively(workingDirectory);
+        Files.delete(workingDirectory);
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+}
@@ -0,0 +1,33 @@
+package monto.service.java8.launching;
+
+/**
+ * How much output of a launched program an {@link InputStreamProductThread} collects before it
+ * sends one STREAM_OUTPUT product. Output is sent once {@code maxBytes} are collected or {@code
+ * maxDelayMillis} after the first byte of it was read, whichever comes first. If either is 0,
+ * coalescing is off and the output of every read is sent right away.
+ */
+public final class OutputCoalescing {
+  private final int maxBytes;
+  private final long maxDelayMillis;
+
+  public OutputCoalescing(int maxBytes, long maxDelayMillis) {
+    if (maxBytes < 0 || maxDelayMillis < 0) {
+      throw new IllegalArgumentException(
+          String.format("Invalid output coalescing of %d bytes, %d ms", maxBytes, maxDelayMillis));
+    }
+    this.maxBytes = maxBytes;
+    this.maxDelayMillis = maxDelayMillis;
+  }
+
+  public boolean isEnabled() {
+    return maxBytes > 0 && maxDelayMillis > 0;
+  }
+
+  public int getMaxBytes() {
+    return maxBytes;
+  }
+
+  public long getMaxDelayMillis() {
+    return maxDelayMillis;
+  }
+}
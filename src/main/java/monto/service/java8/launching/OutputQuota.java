@@ -0,0 +1,31 @@
+package monto.service.java8.launching;
+
+/**
+ * How much output of a launched program is sent to the broker. A session sends at most {@code
+ * maxBytes} of output, and at most {@code maxQueuedProducts} STREAM_OUTPUT products wait for the
+ * broker at a time. Output beyond either limit is dropped and counted, see {@link SessionOutput}.
+ * At least two products have to be queued, output following dropped output is queued together with
+ * the note about it.
+ */
+public final class OutputQuota {
+  private final long maxBytes;
+  private final int maxQueuedProducts;
+
+  public OutputQuota(long maxBytes, int maxQueuedProducts) {
+    if (maxBytes < 0 || maxQueuedProducts < 2) {
+      throw new IllegalArgumentException(
+          String.format(
+              "Invalid output quota of %d bytes, %d queued products", maxBytes, maxQueuedProducts));
+    }
+    this.maxBytes = maxBytes;
+    this.maxQueuedProducts = maxQueuedProducts;
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  public int getMaxQueuedProducts() {
+    return maxQueuedProducts;
+  }
+}
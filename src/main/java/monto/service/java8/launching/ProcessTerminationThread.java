@@ -1,5 +1,6 @@
 package monto.service.java8.launching;
 
+import com.google.gson.JsonObject;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.function.Consumer;
@@ -17,6 +18,7 @@ public class ProcessTerminationThread extends Thread {
   private final int session;
   private final InputStreamProductThread stdoutThread;
   private final InputStreamProductThread stderrThread;
+  private final SessionOutput output;
   private final Path workingDirectory;
   private final ServiceId sourceServiceId;
   private final Consumer<ProductMessage> onProductMessage;
@@ -26,6 +28,7 @@ public class ProcessTerminationThread extends Thread {
       int session,
       InputStreamProductThread stdoutThread,
       InputStreamProductThread stderrThread,
+      SessionOutput output,
       Path workingDirectory,
       ServiceId sourceServiceId,
       Consumer<ProductMessage> onProductMessage) {
@@ -33,6 +36,7 @@ public class ProcessTerminationThread extends Thread {
     this.session = session;
     this.stdoutThread = stdoutThread;
     this.stderrThread = stderrThread;
+    this.output = output;
     this.workingDirectory = workingDirectory;
     this.sourceServiceId = sourceServiceId;
     this.onProductMessage = onProductMessage;
@@ -62,11 +66,17 @@ public class ProcessTerminationThread extends Thread {
         System.out.println("stdout joined");
         stderrThread.join();
         System.out.println("stderr joined");
+        // The output has to reach the broker before the PROCESS_TERMINATED product
+        output.close();
       } catch (InterruptedException e) {
         // TODO: provide some feedback, if this happens
         e.printStackTrace();
       }
 
+      JsonObject terminated =
+          GsonMonto.toJsonTree(new ProcessTerminated(process.exitValue())).getAsJsonObject();
+      terminated.addProperty("outputBytes", output.getSentBytes());
+      terminated.addProperty("truncatedBytes", output.getTruncatedBytes());
       onProductMessage.accept(
           new ProductMessage(
               new LongKey(-1),
@@ -74,10 +84,13 @@ public class ProcessTerminationThread extends Thread {
               sourceServiceId,
               Products.PROCESS_TERMINATED,
               Languages.JAVA,
-              GsonMonto.toJsonTree(new ProcessTerminated(process.exitValue())),
+              terminated,
               0));
 
-      System.out.println("Sent PROCESS_TERMINATED product with exit code " + process.exitValue());
+      System.out.printf(
+          "Sent PROCESS_TERMINATED product with exit code %d, %d bytes of output sent, %d bytes"
+              + " truncated\n",
+          process.exitValue(), output.getSentBytes(), output.getTruncatedBytes());
 
       try {
         CompileUtils.removeDirectoryRecursively(workingDirectory);
@@ -0,0 +1,196 @@
+package monto.service.java8.launching;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+import monto.service.gson.GsonMonto;
+import monto.service.launching.StreamOutput;
+import monto.service.product.ProductMessage;
+import monto.service.product.Products;
+import monto.service.types.Languages;
+import monto.service.types.LongKey;
+import monto.service.types.ServiceId;
+import monto.service.types.Source;
+
+/**
+ * Sends the output of one session as STREAM_OUTPUT products. The stream threads of a session hand
+ * their output to a bounded queue, and a sender thread of the session takes it from there, so a
+ * program that prints faster than the broker accepts products never blocks its stream threads nor
+ * the other services.
+ *
+ * <p>Output that doesn't fit into the queue, or exceeds the quota of the session, is dropped. The
+ * dropped bytes of a stream are reported in the stream as "&hellip; 12 MB truncated" once output of
+ * it fits again, or when the session is closed.
+ *
+ * <p>The sender thread is started with the first queued output, so a session whose launch fails
+ * before any output is read leaves no thread behind.
+ */
+public class SessionOutput {
+  // Tells the sender thread that no more output follows
+  private static final Chunk END = new Chunk(null, "", 0);
+
+  private final int session;
+  private final ServiceId sourceServiceId;
+  private final Consumer<ProductMessage> onProductMessage;
+  private final long maxBytes;
+  private final BlockingQueue<Chunk> queue;
+  private final Thread sender;
+
+  private final long[] truncated = new long[StreamOutput.SourceStream.values().length];
+  private final boolean[] lineOpen = new boolean[StreamOutput.SourceStream.values().length];
+  // Counted against the quota when output is queued, sent bytes are counted by the sender thread
+  private long queuedBytes = 0;
+  private long sentBytes = 0;
+  private long truncatedBytes = 0;
+  private boolean started = false;
+  private boolean closed = false;
+
+  public SessionOutput(
+      int session,
+      OutputQuota quota,
+      ServiceId sourceServiceId,
+      Consumer<ProductMessage> onProductMessage) {
+    this.session = session;
+    this.sourceServiceId = sourceServiceId;
+    this.onProductMessage = onProductMessage;
+    this.maxBytes = quota.getMaxBytes();
+    this.queue = new ArrayBlockingQueue<>(quota.getMaxQueuedProducts());
+    this.sender = new Thread(this::send, "session-output-" + session);
+    sender.setDaemon(true);
+  }
+
+  public int getSession() {
+    return session;
+  }
+
+  /**
+   * Queues output of a stream to be sent, or drops it if the queue is full or the quota of the
+   * session is used up.
+   *
+   * @param bytes the number of bytes the output was decoded from, counted against the quota.
+   */
+  public synchronized void offer(StreamOutput.SourceStream stream, String data, int bytes) {
+    int index = stream.ordinal();
+    if (closed) {
+      truncatedBytes += bytes;
+      return;
+    }
+    // Only the sender thread takes from the queue, so the room checked here can only grow
+    int chunks = truncated[index] > 0 ? 2 : 1;
+    if (queuedBytes + bytes > maxBytes || queue.remainingCapacity() < chunks) {
+      truncated[index] += bytes;
+      truncatedBytes += bytes;
+      return;
+    }
+    if (truncated[index] > 0) {
+      queue.add(truncation(stream));
+      truncated[index] = 0;
+      lineOpen[index] = false;
+    }
+    queue.add(new Chunk(stream, data, bytes));
+    queuedBytes += bytes;
+    lineOpen[index] = !data.isEmpty() && data.charAt(data.length() - 1) != '\n';
+    start();
+  }
+
+  private void start() {
+    if (!started) {
+      sender.start();
+      started = true;
+    }
+  }
+
+  /**
+   * Reports the output dropped since the last sent output of each stream, and waits until all
+   * queued output is sent. Output offered afterwards is dropped.
+   */
+  public void close() throws InterruptedException {
+    List<Chunk> truncations = new ArrayList<>();
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      for (StreamOutput.SourceStream stream : StreamOutput.SourceStream.values()) {
+        if (truncated[stream.ordinal()] > 0) {
+          truncations.add(truncation(stream));
+        }
+      }
+      if (!started && truncations.isEmpty()) {
+        return;
+      }
+      start();
+    }
+    // The sender thread takes from the queue, so these block until there is room
+    for (Chunk truncation : truncations) {
+      queue.put(truncation);
+    }
+    queue.put(END);
+    sender.join();
+  }
+
+  /** Returns the number of bytes of output that were sent to the broker. */
+  public synchronized long getSentBytes() {
+    return sentBytes;
+  }
+
+  /** Returns the number of bytes of output that were dropped. */
+  public synchronized long getTruncatedBytes() {
+    return truncatedBytes;
+  }
+
+  private Chunk truncation(StreamOutput.SourceStream stream) {
+    int index = stream.ordinal();
+    return new Chunk(
+        stream,
+        String.format(
+            "%s\u2026 %s truncated\n", lineOpen[index] ? "\n" : "", formatBytes(truncated[index])),
+        0);
+  }
+
+  private static String formatBytes(long bytes) {
+    if (bytes >= 1024 * 1024) {
+      return String.format("%d MB", bytes / (1024 * 1024));
+    } else if (bytes >= 1024) {
+      return String.format("%d KB", bytes / 1024);
+    }
+    return String.format("%d bytes", bytes);
+  }
+
+  private void send() {
+    try {
+      Chunk chunk;
+      while ((chunk = queue.take()) != END) {
+        onProductMessage.accept(
+            new ProductMessage(
+                new LongKey(-1),
+                new Source(String.format("session:%s", session)),
+                sourceServiceId,
+                Products.STREAM_OUTPUT,
+                Languages.JAVA,
+                GsonMonto.toJsonTree(new StreamOutput(chunk.stream, chunk.data)),
+                0));
+        synchronized (this) {
+          sentBytes += chunk.bytes;
+        }
+      }
+    } catch (InterruptedException e) {
+      System.err.printf("%s (%s) was interrupted\n", getClass().getSimpleName(), session);
+    }
+  }
+
+  private static final class Chunk {
+    private final StreamOutput.SourceStream stream;
+    private final String data;
+    // Bytes of program output the data was decoded from, 0 for truncation notes
+    private final int bytes;
+
+    Chunk(StreamOutput.SourceStream stream, String data, int bytes) {
+      this.stream = stream;
+      this.data = data;
+      this.bytes = bytes;
+    }
+  }
+}
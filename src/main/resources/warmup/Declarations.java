@@ -0,0 +1,136 @@
+package warmup.declarations;
+
+import static java.util.Collections.emptyList;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/** Type, member and annotation declarations. */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public abstract class Declarations<K extends Comparable<? super K>, V>
+    implements Serializable, Comparable<Declarations<K, V>> {
+
+  private static final long serialVersionUID = 1L;
+  public static final int[] NUMBERS = {0, 1, 0x1F, 017, 0b1010, 1_000_000, 'c'};
+  protected final transient Map<K, List<? extends V>> entries;
+  volatile double ratio = 1.5e-3, other = .5d;
+  private long[][] matrix = new long[4][];
+  String name = "name", escaped = "tab\t\"quote\"\u00e9";
+
+  static {
+    System.setProperty("warmup", Boolean.toString(true));
+  }
+
+  {
+    matrix[0] = new long[] {1L, 2L};
+  }
+
+  protected Declarations(Map<K, List<? extends V>> entries) {
+    this.entries = entries;
+  }
+
+  public Declarations() {
+    this(null);
+  }
+
+  @Override
+  public int compareTo(Declarations<K, V> other) {
+    return Integer.compare(entries.size(), other.entries.size());
+  }
+
+  public abstract <T extends Number & Serializable> T convert(K key, Class<T> type)
+      throws IllegalArgumentException, IllegalStateException;
+
+  protected synchronized List<V> values(final K... keys) {
+    List<V> values = new ArrayList<>();
+    for (K key : keys) {
+      values.addAll((List<V>) entries.get(key));
+    }
+    return values;
+  }
+
+  native void nativeMethod(int[] array, String[]... arrays);
+
+  strictfp float compute(float a, float b) {
+    return a * b;
+  }
+
+  public static <T> List<T> empty() {
+    return emptyList();
+  }
+
+  public interface Visitor<R> extends Comparator<R> {
+    int CONSTANT = 42;
+
+    R visit(Node node);
+
+    default R visitAll(List<Node> nodes) {
+      R result = null;
+      for (Node node : nodes) {
+        result = visit(node);
+      }
+      return result;
+    }
+
+    static <R> Visitor<R> noop() {
+      return null;
+    }
+  }
+
+  public static final class Node {
+    private final String label;
+    private final Node[] children;
+
+    public Node(String label, Node... children) {
+      this.label = label;
+      this.children = children;
+    }
+
+    public String getLabel() {
+      return label;
+    }
+  }
+
+  public enum Kind implements Serializable {
+    CLASS("class") {
+      @Override
+      public boolean isType() {
+        return true;
+      }
+    },
+    METHOD("method"),
+    FIELD("field");
+
+    private final String keyword;
+
+    Kind(String keyword) {
+      this.keyword = keyword;
+    }
+
+    public boolean isType() {
+      return false;
+    }
+  }
+
+  @java.lang.annotation.Retention(java.lang.annotation.RetentionPolicy.RUNTIME)
+  @interface Marker {
+    String value() default "";
+
+    int[] numbers() default {1, 2};
+
+    Kind kind() default Kind.CLASS;
+  }
+
+  @Marker(value = "annotated", numbers = {3}, kind = Kind.FIELD)
+  private Object annotated;
+
+  @Deprecated
+  private class Inner<T> extends ArrayList<T> {
+    Inner(int capacity) {
+      super(capacity);
+    }
+  }
+}
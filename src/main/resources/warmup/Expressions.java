@@ -0,0 +1,91 @@
+package warmup.expressions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/** Expressions, lambdas, method references and generic invocations. */
+public class Expressions {
+
+  private final Map<String, List<Integer>> map = new HashMap<String, List<Integer>>();
+
+  public Object expressions(List<String> words, int a, long b, double c) {
+    int x = a + (int) b * 2 - a / 3 % 4;
+    boolean flag = a < b && b <= c || !(a > c) && a >= 0 || a != x & x == 1 | x != 2;
+    x += 1;
+    x -= 2;
+    x *= 3;
+    x /= 4;
+    x %= 5;
+    x &= 6;
+    x |= 7;
+    x ^= 8;
+    x <<= 1;
+    x >>= 1;
+    x >>>= 1;
+    int shifted = x << 2 >> 1 >>> 3;
+    Object cast = (Object) words;
+    String casted = (String) cast.toString();
+    boolean instance = cast instanceof List<?>;
+    int[] array = new int[] {x, shifted, ++x, x--, -x, +x};
+    int[][] grid = new int[3][3];
+    grid[1][2] = array[array.length - 1];
+    char character = 'a';
+    character++;
+
+    Function<String, Integer> length = String::length;
+    BiFunction<Integer, Integer, Integer> add = (left, right) -> left + right;
+    Supplier<List<String>> supplier = ArrayList::new;
+    Comparator<String> comparator = (String s1, String s2) -> {
+      return s1.compareToIgnoreCase(s2);
+    };
+    Runnable runnable =
+        new Runnable() {
+          @Override
+          public void run() {
+            System.out.println(Expressions.this.map);
+          }
+        };
+
+    List<Integer> lengths =
+        words
+            .stream()
+            .filter(word -> !word.isEmpty() && word.length() < 10)
+            .map(length)
+            .sorted(Comparator.<Integer>naturalOrder().reversed())
+            .collect(Collectors.toList());
+    int total = lengths.stream().reduce(0, add::apply);
+    List<String> sorted = new ArrayList<>(words);
+    sorted.sort(comparator.thenComparing(Function.identity()));
+    String joined = String.join(", ", Arrays.asList("a", "b")) + total + flag + instance;
+    Object nothing = null;
+    return flag ? joined : nothing == null ? casted : this.<String>identity(joined);
+  }
+
+  private <T> T identity(T value) {
+    return value;
+  }
+
+  @SafeVarargs
+  private static <T extends Comparable<T>> T max(T first, T... rest) {
+    T max = first;
+    for (T candidate : rest) {
+      if (candidate.compareTo(max) > 0) {
+        max = candidate;
+      }
+    }
+    return max;
+  }
+
+  public static void main(String[] args) {
+    System.out.println(max(1, 2, 3) + max("a", "b").length());
+    new Expressions().expressions(Arrays.asList(args), 1, 2L, 3.0);
+  }
+}
@@ -0,0 +1,91 @@
+package warmup.statements;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/** Statements and control flow. */
+public class Statements {
+
+  public int controlFlow(int[] values, String mode) throws IOException {
+    int sum = 0;
+    outer:
+    for (int i = 0, j = values.length - 1; i < values.length; i++, j--) {
+      if (values[i] < 0) {
+        continue;
+      } else if (values[i] == 0) {
+        break outer;
+      } else {
+        sum += values[i];
+      }
+      while (j > i && values[j] > values[i]) {
+        j--;
+      }
+      do {
+        sum--;
+      } while (sum > 100);
+    }
+    for (int value : values) {
+      sum ^= value;
+    }
+
+    switch (mode) {
+      case "add":
+        sum++;
+        break;
+      case "sub":
+        sum--;
+        // fall through
+      default:
+        sum = -sum;
+    }
+
+    try (BufferedReader reader = new BufferedReader(new StringReader(mode))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        sum += line.length();
+      }
+    } catch (IllegalStateException | IllegalArgumentException e) {
+      throw new IOException(e);
+    } finally {
+      sum <<= 1;
+    }
+
+    synchronized (this) {
+      assert sum >= 0 : "negative sum " + sum;
+    }
+
+    class Local implements Iterable<Integer> {
+      private final List<Integer> items = new ArrayList<>();
+
+      @Override
+      public Iterator<Integer> iterator() {
+        return items.iterator();
+      }
+    }
+    Local local = new Local();
+    for (Integer item : local) {
+      sum += item;
+    }
+
+    final Object lock;
+    lock = new Object();
+    label:
+    {
+      if (lock == null) break label;
+    }
+    return sum > 0 ? sum : ~sum;
+  }
+
+  public void exceptions() {
+    try {
+      throw new UnsupportedOperationException();
+    } catch (RuntimeException e) {
+      e.printStackTrace();
+    }
+    ;
+  }
+}
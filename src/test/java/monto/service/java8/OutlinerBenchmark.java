@@ -0,0 +1,263 @@
+package monto.service.java8;
+
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.stream.Collectors;
+import monto.service.ZMQConfiguration;
+import monto.service.outline.Outline;
+import org.zeromq.ZContext;
+
+/**
+ * Measures the cost of an outline entry of the {@link JavaOutliner}. It parses a generated class
+ * with thousands of members to a {@link FlatAst} and outlines it with the outliner, which takes its
+ * icons from {@link OutlineIcons} and builds labels with a StringBuilder. For comparison, the same
+ * AST is outlined as the outliner did before, calling getResource for the icon of every entry and
+ * building labels with String.format and streams. Parsing is not measured.
+ *
+ * <p>Run it with the main classes and dependencies of the project on the class path, optionally
+ * with the number of members of each kind of the generated class as argument.
+ */
+public class OutlinerBenchmark {
+  private static final int ITERATIONS = 200;
+
+  // Keeps the JIT from dropping the results of the measured tasks
+  private static volatile Object sink;
+
+  public static void main(String[] args) throws Exception {
+    int members = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+    String contents = source(members);
+    ZMQConfiguration zmqConfig =
+        new ZMQConfiguration(new ZContext(1), "tcp://*:5010", "tcp://*:5004", 5025);
+    FlatAst ast = new JavaJavaCCParser(zmqConfig, null, true, null).parseFlat(contents);
+    JavaOutliner outliner = new JavaOutliner(zmqConfig, null, false);
+    BaselineOutliner baseline = new BaselineOutliner(zmqConfig);
+
+    int entries = count(outliner.outline(ast, contents));
+    if (entries != count(baseline.baselineOutline(ast, contents))) {
+      throw new IllegalStateException("The outlines of both outliners differ");
+    }
+    measure(
+        String.format("icon table and StringBuilder, %d entries", entries),
+        entries,
+        () -> outliner.outline(ast, contents));
+    measure(
+        "getResource and String.format per entry",
+        entries,
+        () -> baseline.baselineOutline(ast, contents));
+  }
+
+  /** Runs {@code task} until the JIT settled and prints the time per entry of the fastest run. */
+  private static void measure(String name, int entries, Task task) {
+    long best = Long.MAX_VALUE;
+    for (int i = 0; i < ITERATIONS; i++) {
+      long start = System.nanoTime();
+      sink = task.run();
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    System.out.printf("%-50s %8.1f ns per entry\n", name, (double) best / entries);
+  }
+
+  private static int count(Outline outline) {
+    int count = 1;
+    List<Outline> children = outline.getChildren();
+    for (Outline child : children) {
+      count += count(child);
+    }
+    return count;
+  }
+
+  /** Generates a class with {@code members} fields, constructors and methods of each visibility. */
+  private static String source(int members) {
+    String[] visibilities = {"public ", "protected ", "private ", ""};
+    StringBuilder source = new StringBuilder("package bench;\n\nimport java.util.*;\n\n");
+    source.append("public class Generated {\n");
+    for (int m = 0; m < members; m++) {
+      String visibility = visibilities[m % visibilities.length];
+      source
+          .append("  ")
+          .append(visibility)
+          .append("Map<String, Integer> field")
+          .append(m)
+          .append(" = new HashMap<>(), other")
+          .append(m)
+          .append(";\n")
+          .append("  ")
+          .append(visibility)
+          .append("Generated(int count")
+          .append(m)
+          .append(", String name) {}\n")
+          .append("  ")
+          .append(visibility)
+          .append("List<String> method")
+          .append(m)
+          .append("(int count, String name, Map<String, List<Integer>> values) {\n")
+          .append("    return new ArrayList<>();\n")
+          .append("  }\n");
+    }
+    return source.append("}\n").toString();
+  }
+
+  /** The outliner as it was before the icon table and StringBuilder labels. */
+  private static class BaselineOutliner extends JavaOutliner {
+
+    BaselineOutliner(ZMQConfiguration zmqConfig) {
+      super(zmqConfig, null, false);
+    }
+
+    Outline baselineOutline(FlatAst ast, String document) {
+      BaselineTrimmer trimmer = new BaselineTrimmer(ast, document);
+      trimmer.visit(ast.getRoot());
+      return trimmer.getConverted();
+    }
+
+    private class BaselineTrimmer {
+      private Deque<Outline> converted = new ArrayDeque<>();
+      private FlatAst ast;
+      private String document;
+
+      BaselineTrimmer(FlatAst ast, String document) {
+        this.ast = ast;
+        this.document = document;
+      }
+
+      Outline getConverted() {
+        return converted.getFirst();
+      }
+
+      void visit(int node) {
+        switch (ast.getName(node)) {
+          case "CompilationUnit":
+            converted.push(new Outline("compilation-unit", ast.region(node), null));
+            visitSiblings(ast.getFirstChild(node));
+            break;
+
+          case "PackageDeclaration":
+            {
+              int packageIdentifier = ast.getFirstChild(node);
+              addChild(
+                  new Outline(
+                      extract(packageIdentifier),
+                      ast.region(packageIdentifier),
+                      getResource("package.png")));
+            }
+            break;
+
+          case "ClassDeclaration":
+          case "InterfaceDeclaration":
+            {
+              List<String> modifiers = modifiers(ast.getFirstChild(node));
+              int className = ast.getChild(node, 1);
+              Outline klass =
+                  new Outline(
+                      extract(className), ast.region(className), getIcon(modifiers, "class"));
+              addChild(klass);
+              converted.push(klass);
+              visitSiblings(ast.getNextSibling(className));
+              converted.pop();
+            }
+            break;
+
+          case "ConstructorDeclaration":
+            {
+              List<String> modifiers = modifiers(ast.getFirstChild(node));
+              int constructorName = ast.getChild(node, 1);
+              List<Integer> parameters = new ArrayList<>();
+              for (int parameter = ast.getFirstChild(ast.getChild(node, 2));
+                  parameter != -1;
+                  parameter = ast.getNextSibling(parameter)) {
+                parameters.add(ast.getFirstChild(parameter));
+              }
+              String parameterList =
+                  parameters.stream().map(this::extract).collect(Collectors.joining(", "));
+              String name = String.format("%s(%s)", extract(constructorName), parameterList);
+              addChild(
+                  new Outline(
+                      name, ast.region(constructorName), getIcon(modifiers, "constructor")));
+            }
+            break;
+
+          case "FieldDeclaration":
+            {
+              List<String> modifiers = modifiers(ast.getFirstChild(node));
+              int type = ast.getChild(node, 1);
+              for (int variable = ast.getNextSibling(type);
+                  variable != -1;
+                  variable = ast.getNextSibling(variable)) {
+                if (!ast.getName(variable).equals("VariableDeclarator")) continue;
+                String name = String.format("%s : %s", extract(variable), extract(type));
+                addChild(new Outline(name, ast.region(variable), getIcon(modifiers, "field")));
+              }
+            }
+            break;
+
+          case "MethodDeclaration":
+            {
+              List<String> modifiers = modifiers(ast.getFirstChild(node));
+              int returnType = ast.getChild(node, 1);
+              int methodName = ast.getChild(node, 2);
+              List<Integer> parameters = new ArrayList<>();
+              for (int parameter = ast.getNextSibling(methodName);
+                  parameter != -1 && ast.getName(parameter).equals("Parameter");
+                  parameter = ast.getNextSibling(parameter)) {
+                parameters.add(ast.getFirstChild(parameter));
+              }
+              String methodParams =
+                  parameters.stream().map(this::extract).collect(Collectors.joining(", "));
+              String name =
+                  String.format(
+                      "%s(%s) : %s", extract(methodName), methodParams, extract(returnType));
+              addChild(new Outline(name, ast.region(methodName), getIcon(modifiers, "method")));
+            }
+
+          default:
+            visitSiblings(ast.getFirstChild(node));
+        }
+      }
+
+      private void visitSiblings(int first) {
+        for (int node = first; node != -1; node = ast.getNextSibling(node)) {
+          visit(node);
+        }
+      }
+
+      private List<String> modifiers(int modifiers) {
+        List<String> names = new ArrayList<>();
+        for (int modifier = ast.getFirstChild(modifiers);
+            modifier != -1;
+            modifier = ast.getNextSibling(modifier)) {
+          names.add(ast.getName(modifier));
+        }
+        return names;
+      }
+
+      private URL getIcon(List<String> modifiers, String type) {
+        for (String modifier : modifiers) {
+          switch (modifier) {
+            case "public":
+              return getResource(type + "-public.png");
+            case "private":
+              return getResource(type + "-private.png");
+            case "protected":
+              return getResource(type + "-protected.png");
+          }
+        }
+        return getResource(type + "-default.png");
+      }
+
+      private void addChild(Outline o) {
+        converted.peek().addChild(o);
+      }
+
+      private String extract(int node) {
+        return ast.extract(node, document);
+      }
+    }
+  }
+
+  private interface Task {
+    Object run();
+  }
+}